@@ -0,0 +1,195 @@
+/*
+   Copyright 2012 Harri Smatt
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package fi.harism.wallpaper.hellokitty;
+
+import java.util.Arrays;
+
+/**
+ * Compiled animation table. Animations refer to scene layers with integer
+ * handles resolved once at load time, so playing them back requires no
+ * lookups or allocations.
+ */
+public final class KittyAnimation {
+
+	// Animation types.
+	public static final int TYPE_BLINK = 0;
+	public static final int TYPE_CLEAR = 1;
+	public static final int TYPE_MOVE = 2;
+	public static final int TYPE_RENDER = 3;
+
+	// Movement amplitudes.
+	private float[] mAmplitudes = new float[8];
+	// Number of animations.
+	private int mCount;
+	// Animation durations.
+	private long[] mDurations = new long[8];
+	// Frame rate limits, zero for display rate.
+	private float[] mFrameRates = new float[8];
+	// Layer handles for each animation.
+	private int[][] mLayers = new int[8][];
+	// Easing periods.
+	private long[] mPeriods = new long[8];
+	// Animation types.
+	private int[] mTypes = new int[8];
+	// Weights for random selection, zero if never selected randomly.
+	private float[] mWeights = new float[8];
+	// Sum of all weights.
+	private float mWeightTotal;
+
+	/**
+	 * Creates default kitty animations for given scene. Animations referring
+	 * to layers missing from scene are left out.
+	 */
+	public static KittyAnimation create(KittyScene scene) {
+		KittyAnimation anim = new KittyAnimation();
+		anim.add(scene, TYPE_RENDER, 0f, 0, 0, 0f, 0f);
+		anim.add(scene, TYPE_BLINK, .2f, 1000, 500, 0f, 0f, "eye_left_bg",
+				"eye_left");
+		anim.add(scene, TYPE_BLINK, .2f, 1000, 500, 0f, 0f, "eye_right_bg",
+				"eye_right");
+		anim.add(scene, TYPE_BLINK, .1f, 1000, 500, 0f, 0f, "eye_left_bg",
+				"eye_left", "eye_right_bg", "eye_right");
+		anim.add(scene, TYPE_MOVE, .5f / 3, 2880, 720, .08f, 0f, "paw_left");
+		anim.add(scene, TYPE_MOVE, .5f / 3, 2880, 720, .08f, 0f, "paw_right");
+		anim.add(scene, TYPE_MOVE, .5f / 3, 2880, 720, .08f, 0f, "bow");
+		anim.add(scene, TYPE_CLEAR, 0f, 4000, 5000, 0f, 30f);
+		return anim;
+	}
+
+	/**
+	 * Adds new animation. Layer ids are resolved into layer handles and
+	 * animation is ignored if any of them is not found. Frame rate 0 means
+	 * animation is rendered at display rate.
+	 */
+	public void add(KittyScene scene, int type, float weight, long duration,
+			long period, float amplitude, float frameRate, String... layerIds) {
+		int[] layers = new int[layerIds.length];
+		for (int i = 0; i < layerIds.length; ++i) {
+			layers[i] = scene.getLayerIndex(layerIds[i]);
+			if (layers[i] < 0) {
+				return;
+			}
+		}
+
+		if (mCount == mTypes.length) {
+			mAmplitudes = Arrays.copyOf(mAmplitudes, mCount * 2);
+			mDurations = Arrays.copyOf(mDurations, mCount * 2);
+			mFrameRates = Arrays.copyOf(mFrameRates, mCount * 2);
+			mLayers = Arrays.copyOf(mLayers, mCount * 2);
+			mPeriods = Arrays.copyOf(mPeriods, mCount * 2);
+			mTypes = Arrays.copyOf(mTypes, mCount * 2);
+			mWeights = Arrays.copyOf(mWeights, mCount * 2);
+		}
+		mAmplitudes[mCount] = amplitude;
+		mDurations[mCount] = duration;
+		mFrameRates[mCount] = frameRate;
+		mLayers[mCount] = layers;
+		mPeriods[mCount] = period;
+		mTypes[mCount] = type;
+		mWeights[mCount] = weight;
+		mWeightTotal += weight;
+		++mCount;
+	}
+
+	/**
+	 * Returns index of first animation of given type, or -1 if not found.
+	 */
+	public int find(int type) {
+		for (int i = 0; i < mCount; ++i) {
+			if (mTypes[i] == type) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Returns movement amplitude of given animation.
+	 */
+	public float getAmplitude(int anim) {
+		return mAmplitudes[anim];
+	}
+
+	/**
+	 * Returns number of animations.
+	 */
+	public int getCount() {
+		return mCount;
+	}
+
+	/**
+	 * Returns duration of given animation in milliseconds.
+	 */
+	public long getDuration(int anim) {
+		return mDurations[anim];
+	}
+
+	/**
+	 * Returns frame rate limit of given animation, 0 for display rate.
+	 */
+	public float getFrameRate(int anim) {
+		return mFrameRates[anim];
+	}
+
+	/**
+	 * Returns layer handle at given index for given animation.
+	 */
+	public int getLayer(int anim, int index) {
+		return mLayers[anim][index];
+	}
+
+	/**
+	 * Returns number of layers given animation operates on.
+	 */
+	public int getLayerCount(int anim) {
+		return mLayers[anim].length;
+	}
+
+	/**
+	 * Returns easing period of given animation in milliseconds.
+	 */
+	public long getPeriod(int anim) {
+		return mPeriods[anim];
+	}
+
+	/**
+	 * Returns type of given animation.
+	 */
+	public int getType(int anim) {
+		return mTypes[anim];
+	}
+
+	/**
+	 * Returns random animation chosen by animation weights, or -1 if there
+	 * are no randomly selectable animations.
+	 */
+	public int pickRandom() {
+		float rand = (float) (Math.random() * mWeightTotal);
+		int ret = -1;
+		for (int i = 0; i < mCount; ++i) {
+			if (mWeights[i] > 0) {
+				ret = i;
+				rand -= mWeights[i];
+				if (rand < 0) {
+					break;
+				}
+			}
+		}
+		return ret;
+	}
+
+}
@@ -0,0 +1,438 @@
+/*
+   Copyright 2012 Harri Smatt
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package fi.harism.wallpaper.hellokitty;
+
+import java.util.Arrays;
+
+/**
+ * Animation program player. Picks animations to play and prepares frames for
+ * given times, which involves only CPU work so frames can be prepared on
+ * any thread, one frame at a time.
+ */
+public final class KittyAnimator {
+
+	// Number of clear beziers.
+	private static final int CLEAR_BEZIER_COUNT = 5;
+	// Idle time between animations in milliseconds.
+	private static final long IDLE_DURATION = 5000;
+	// Number of random animations between drawing and clearing kitty.
+	private static final int PROGRAM_RANDOM_COUNT = 20;
+
+	// View aspect ratio.
+	private final float mAspectRatio[] = new float[2];
+	// Clear layer control points, 16 coordinates per bezier.
+	private final float[] mClearBeziers = new float[CLEAR_BEZIER_COUNT * 16];
+	private final KittyAnimation mKittyAnimation;
+	private final KittyScene mKittyScene;
+	// Moving layer offset during previous frame.
+	private final float[] mMoveOffset = new float[2];
+	// Scale from view coordinates into pixels.
+	private float mPixelScale;
+	// Beziers drawn during current frame, in bezier order.
+	private final int[] mActiveBeziers;
+	// Animation program, current position and length.
+	private final int[] mProgram = new int[PROGRAM_RANDOM_COUNT + 2];
+	private int mProgramLength, mProgramPos;
+	// Temporary transform for clear beziers.
+	private final KittyTransform mTempTransform = new KittyTransform();
+	// Time current animation finished and idle period ends at, -1 if still
+	// running.
+	private long mTimeIdle = -1;
+	// Offset from given frame times into animation time, which stops while
+	// animation is paused.
+	private long mTimeOffset;
+	// Animation time of last prepared frame, -1 if there is none.
+	private long mTimePrepared = -1;
+	private long mTimeStart, mTimeLast = -1;
+	// Animation time content was drawn up to before last prepared frame,
+	// relative to mTimeStart, for kitty rendering and eye blink.
+	private long mTimeRestore;
+
+	/**
+	 * Constructor takes scene and its animations.
+	 */
+	public KittyAnimator(KittyScene scene, KittyAnimation animation) {
+		mKittyScene = scene;
+		mKittyAnimation = animation;
+		mActiveBeziers = new int[scene.getBezierCount()];
+	}
+
+	/**
+	 * Generates new random animation program.
+	 */
+	private void genNewStateArray() {
+		mProgramLength = mProgramPos = 0;
+		// First render kitty.
+		int anim = mKittyAnimation.find(KittyAnimation.TYPE_RENDER);
+		if (anim >= 0) {
+			mProgram[mProgramLength++] = anim;
+		}
+		// Add N random events.
+		for (int i = 0; i < PROGRAM_RANDOM_COUNT; ++i) {
+			anim = mKittyAnimation.pickRandom();
+			if (anim >= 0) {
+				mProgram[mProgramLength++] = anim;
+			}
+		}
+		// Finally clear kitty for redrawing.
+		anim = mKittyAnimation.find(KittyAnimation.TYPE_CLEAR);
+		if (anim >= 0) {
+			mProgram[mProgramLength++] = anim;
+		}
+	}
+
+	/**
+	 * Returns animations played.
+	 */
+	public KittyAnimation getAnimation() {
+		return mKittyAnimation;
+	}
+
+	/**
+	 * Returns scene animations are played on.
+	 */
+	public KittyScene getScene() {
+		return mKittyScene;
+	}
+
+	/**
+	 * Prepares given frame for given time. Animation advances to next one
+	 * once current animation and idle period after it have finished.
+	 */
+	public void prepare(KittyFrame frame, long time) {
+		frame.reset(time);
+		time -= mTimeOffset;
+		mTimePrepared = time;
+
+		// Advance to next animation once idle period has passed.
+		if (mTimeIdle >= 0 && time >= mTimeIdle) {
+			mTimeIdle = mTimeLast = mTimeStart = -1;
+			++mProgramPos;
+		}
+		if (mProgramPos >= mProgramLength) {
+			genNewStateArray();
+		}
+
+		long timeNext = -1;
+		int anim = mProgramPos < mProgramLength ? mProgram[mProgramPos] : -1;
+		int state = anim >= 0 ? mKittyAnimation.getType(anim)
+				: KittyStats.STATE_NONE;
+		switch (state) {
+		case KittyAnimation.TYPE_RENDER:
+			timeNext = prepareKitty(frame, time);
+			break;
+		case KittyAnimation.TYPE_BLINK:
+			timeNext = prepareBlinkEye(frame, time, anim);
+			break;
+		case KittyAnimation.TYPE_MOVE:
+			timeNext = prepareMoveLayer(frame, time, anim);
+			break;
+		case KittyAnimation.TYPE_CLEAR:
+			timeNext = prepareClear(frame, time, anim);
+			break;
+		}
+
+		// Next frame for next change, limited to animation frame rate, or
+		// for advancing to next animation once idle period ends.
+		if (timeNext >= 0) {
+			frame.setNext(state, anim, timeNext + mTimeOffset,
+					mKittyAnimation.getFrameRate(anim));
+		} else {
+			if (mTimeIdle < 0) {
+				mTimeIdle = time + IDLE_DURATION;
+			}
+			frame.setNext(state, anim, mTimeIdle + mTimeOffset, 0f);
+		}
+	}
+
+	/**
+	 * Prepares eye blink animation. Layers are closed during first half of
+	 * animation period and opened during second one. Returns time of next
+	 * change, or -1 once animation has finished.
+	 */
+	private long prepareBlinkEye(KittyFrame frame, long timeCurrent, int anim) {
+		if (mTimeLast < 0) {
+			mTimeStart = mTimeLast = timeCurrent;
+		}
+
+		long diffLast = mTimeLast - mTimeStart;
+		long diffCurrent = timeCurrent - mTimeStart;
+
+		float tStart = (float) diffLast / mKittyAnimation.getPeriod(anim);
+		float tEnd = (float) diffCurrent / mKittyAnimation.getPeriod(anim);
+
+		// Only blinking layers change.
+		KittyDamage damage = frame.getDamage();
+		for (int i = 0; i < mKittyAnimation.getLayerCount(anim); ++i) {
+			int layer = mKittyAnimation.getLayer(anim, i);
+			damage.add(mKittyScene, layer,
+					mKittyScene.getLayerBezierStart(layer),
+					mKittyScene.getLayerBezierEnd(layer), 0f, 0f, mAspectRatio);
+			frame.addLayers(layer, layer + 1, i % 2 == 0 ? tStart : 2 - tEnd,
+					i % 2 == 0 ? tEnd : 2 - tStart, -KittyFrame.TIME_INFINITE,
+					KittyFrame.TIME_INFINITE);
+		}
+
+		mTimeRestore = diffLast;
+		mTimeLast = timeCurrent;
+		return diffCurrent < mKittyAnimation.getDuration(anim) ? timeCurrent
+				: -1;
+	}
+
+	/**
+	 * Prepares clearing current buffer. Clear blobs grow during animation
+	 * period, animation ends after its duration. Returns time of next change.
+	 */
+	private long prepareClear(KittyFrame frame, long timeCurrent, int anim) {
+		if (mTimeLast < 0) {
+			for (int i = 0; i < CLEAR_BEZIER_COUNT; ++i) {
+				float x = (float) (Math.random() * 2 - 1);
+				float y = (float) (Math.random() * 2 - 1);
+				float dx = 4f / (CLEAR_BEZIER_COUNT - i);
+				float dy = 3f / (CLEAR_BEZIER_COUNT - i);
+
+				float[] bezier = mClearBeziers;
+				int pts0 = i * 16, pts1 = i * 16 + 8;
+				bezier[pts0 + 0] = bezier[pts1 + 0] = x;
+				bezier[pts0 + 1] = bezier[pts1 + 1] = y - dy;
+				bezier[pts0 + 2] = x - dx;
+				bezier[pts1 + 2] = x + dx;
+				bezier[pts0 + 3] = bezier[pts1 + 3] = y - dy;
+				bezier[pts0 + 4] = x - dx;
+				bezier[pts1 + 4] = x + dx;
+				bezier[pts0 + 5] = bezier[pts1 + 5] = y + dy;
+				bezier[pts0 + 6] = bezier[pts1 + 6] = x;
+				bezier[pts0 + 7] = bezier[pts1 + 7] = y + dy;
+			}
+			mTimeStart = mTimeLast = timeCurrent;
+		}
+
+		long diffCurrent = timeCurrent - mTimeStart;
+		float scale = (float) diffCurrent / mKittyAnimation.getPeriod(anim);
+		frame.getDamage().setFull();
+		scale *= scale * (3 - 2 * scale);
+
+		// Blobs are scaled around their bottom points on GPU, segment count
+		// is chosen for their current size.
+		for (int i = 0; i < CLEAR_BEZIER_COUNT; ++i) {
+			float dx = mClearBeziers[i * 16 + 0];
+			float dy = mClearBeziers[i * 16 + 1] + 1;
+			mTempTransform.setTranslate(-dx, -dy);
+			mTempTransform.scale(scale, scale);
+			mTempTransform.translate(dx, dy);
+			int segmentCount = KittyTessellator.getSegmentCount(mClearBeziers,
+					i * 16, mPixelScale * scale);
+			frame.addBezier(mClearBeziers, i * 16,
+					KittyFrameRenderer.COLOR_BG, 0, segmentCount,
+					mTempTransform.getTranslateX(),
+					mTempTransform.getTranslateY(), scale);
+		}
+
+		mTimeLast = timeCurrent;
+		if (diffCurrent >= mKittyAnimation.getDuration(anim)) {
+			mTimeLast = mTimeStart = -1;
+			mProgramLength = mProgramPos = 0;
+		}
+		return timeCurrent;
+	}
+
+	/**
+	 * Prepares procedural kitty rendering. Returns time of next change, which
+	 * is later than next frame if no bezier is being drawn, or -1 once all
+	 * beziers have been drawn.
+	 */
+	private long prepareKitty(KittyFrame frame, long timeCurrent) {
+		KittyDamage damage = frame.getDamage();
+		if (mTimeStart < 0) {
+			frame.addClear();
+			mTimeStart = mTimeLast = timeCurrent;
+			damage.setFull();
+		}
+
+		long diffLast = mTimeLast - mTimeStart;
+		long diffCurrent = timeCurrent - mTimeStart;
+
+		// Beziers drawn during time window and damaged area covered by them
+		// are found using scene time index. Next change happens once
+		// earliest bezier yet to be drawn starts.
+		long diffNext = Long.MAX_VALUE;
+		int activeCount = 0;
+		int indexStart = mKittyScene.getTimeIndexStart(diffLast);
+		int indexEnd = mKittyScene.getTimeIndexEnd(diffCurrent);
+		for (int i = indexStart; i < indexEnd; ++i) {
+			int bezier = mKittyScene.getTimeIndexBezier(i);
+			long timeEnd = mKittyScene.getTimeEnd(bezier);
+			if (timeEnd >= diffLast) {
+				damage.add(mKittyScene, mKittyScene.getBezierLayer(bezier),
+						bezier, bezier + 1, 0f, 0f, mAspectRatio);
+				mActiveBeziers[activeCount++] = bezier;
+			}
+			if (timeEnd > diffCurrent) {
+				diffNext = diffCurrent;
+			}
+		}
+		if (diffNext == Long.MAX_VALUE
+				&& indexEnd < mKittyScene.getBezierCount()) {
+			diffNext = mKittyScene.getTimeStart(mKittyScene
+					.getTimeIndexBezier(indexEnd));
+		}
+
+		// Drawn beziers are merged into runs of consecutive beziers and
+		// clamped to time window in vertex shader.
+		Arrays.sort(mActiveBeziers, 0, activeCount);
+		for (int i = 0; i < activeCount;) {
+			int runStart = mActiveBeziers[i], runEnd = runStart + 1;
+			while (++i < activeCount && mActiveBeziers[i] == runEnd) {
+				++runEnd;
+			}
+			frame.addBatch(runStart, runEnd, diffLast, diffCurrent);
+		}
+
+		mTimeRestore = diffLast;
+		mTimeLast = timeCurrent;
+		return diffNext == Long.MAX_VALUE ? -1 : mTimeStart + diffNext;
+	}
+
+	/**
+	 * Prepares layer movement animation. Layer is moved along a circle with
+	 * animation period, amplitude rising and falling during animation
+	 * duration. Returns time of next change, or -1 once animation has
+	 * finished.
+	 */
+	private long prepareMoveLayer(KittyFrame frame, long timeCurrent,
+			int anim) {
+		long duration = mKittyAnimation.getDuration(anim);
+		long period = mKittyAnimation.getPeriod(anim);
+		if (mTimeStart < 0) {
+			mTimeStart = timeCurrent;
+			mTimeLast = (long) ((Math.random() * 2 - 1) * period);
+			mMoveOffset[0] = mMoveOffset[1] = 0f;
+		}
+
+		long diffCurrent = timeCurrent - mTimeStart;
+		if (diffCurrent > duration) {
+			diffCurrent = duration;
+		}
+
+		float t = (float) Math.sin(diffCurrent * Math.PI / duration);
+		t = t * t * t * (3 - 2 * t) * mKittyAnimation.getAmplitude(anim);
+		float dx = (float) Math.sin((diffCurrent + mTimeLast) * Math.PI
+				/ period);
+		float dy = (float) Math.cos((diffCurrent + mTimeLast) * Math.PI
+				/ period);
+		if (mTimeLast < 0) {
+			float tmp = dx;
+			dx = dy;
+			dy = tmp;
+		}
+
+		int layerIdx = mKittyAnimation.getLayer(anim, 0);
+
+		// Damaged area covers moving layer at previous and current position.
+		KittyDamage damage = frame.getDamage();
+		int bezierStart = mKittyScene.getLayerBezierStart(layerIdx);
+		int bezierEnd = mKittyScene.getLayerBezierEnd(layerIdx);
+		damage.add(mKittyScene, layerIdx, bezierStart, bezierEnd,
+				mMoveOffset[0], mMoveOffset[1], mAspectRatio);
+		damage.add(mKittyScene, layerIdx, bezierStart, bezierEnd, t * dx, t
+				* dy, mAspectRatio);
+		mMoveOffset[0] = t * dx;
+		mMoveOffset[1] = t * dy;
+
+		// Static layers below and above moving layer are taken from layer
+		// cache, moving layer is drawn from static geometry with its offset
+		// added to layer transform.
+		frame.addCached(0, layerIdx, true);
+		frame.addMove(layerIdx, t * dx, t * dy);
+		frame.addCached(layerIdx + 1, mKittyScene.getLayerCount(), false);
+
+		return diffCurrent < duration ? timeCurrent : -1;
+	}
+
+	/**
+	 * Prepares given frame for restoring content drawn by frames prepared
+	 * before last one, after it has been lost along with EGL context. Last
+	 * prepared frame is rendered on top of restored content, so kitty is
+	 * drawn only up to where that frame starts drawing it, otherwise its
+	 * antialiased edges would be blended twice. Eye blink is restored the
+	 * same way on top of fully drawn kitty. Other animations are restored to
+	 * fully drawn kitty, their frames overwrite damaged area and previous
+	 * frames of clear animation are lost.
+	 */
+	public void prepareRestore(KittyFrame frame) {
+		frame.reset(mTimePrepared + mTimeOffset);
+		frame.getDamage().setFull();
+		frame.addClear();
+
+		int anim = mProgramPos < mProgramLength ? mProgram[mProgramPos] : -1;
+		if (anim < 0) {
+			return;
+		}
+		int layerCount = mKittyScene.getLayerCount();
+		int type = mKittyAnimation.getType(anim);
+		if (type == KittyAnimation.TYPE_RENDER) {
+			if (mTimeStart >= 0) {
+				frame.addLayers(0, layerCount, 0f, 1f,
+						-KittyFrame.TIME_INFINITE, mTimeRestore);
+			}
+			return;
+		}
+		frame.addLayers(0, layerCount, 0f, 1f, -KittyFrame.TIME_INFINITE,
+				KittyFrame.TIME_INFINITE);
+
+		// Blinking layers as drawn by blink frames so far, see
+		// prepareBlinkEye.
+		if (type == KittyAnimation.TYPE_BLINK && mTimeStart >= 0) {
+			float t = (float) mTimeRestore / mKittyAnimation.getPeriod(anim);
+			for (int i = 0; i < mKittyAnimation.getLayerCount(anim); ++i) {
+				int layer = mKittyAnimation.getLayer(anim, i);
+				frame.addLayers(layer, layer + 1, i % 2 == 0 ? 0f : 2 - t,
+						i % 2 == 0 ? t : 2f, -KittyFrame.TIME_INFINITE,
+						KittyFrame.TIME_INFINITE);
+			}
+		}
+	}
+
+	/**
+	 * Restarts animation program from the beginning.
+	 */
+	public void reset() {
+		mTimeStart = mTimeLast = -1;
+		mProgramLength = mProgramPos = 0;
+		mTimeIdle = mTimePrepared = -1;
+	}
+
+	/**
+	 * Resumes animation at given frame time from where last prepared frame
+	 * left it.
+	 */
+	public void resume(long time) {
+		if (mTimePrepared >= 0) {
+			mTimeOffset = time - mTimePrepared;
+		}
+	}
+
+	/**
+	 * Sets view aspect ratio and scale from view coordinates into pixels.
+	 */
+	public void setView(float[] aspectRatio, float pixelScale) {
+		mAspectRatio[0] = aspectRatio[0];
+		mAspectRatio[1] = aspectRatio[1];
+		mPixelScale = pixelScale;
+	}
+
+}
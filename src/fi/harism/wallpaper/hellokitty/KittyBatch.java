@@ -0,0 +1,272 @@
+/*
+   Copyright 2012 Harri Smatt
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package fi.harism.wallpaper.hellokitty;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+
+import android.opengl.GLES20;
+
+/**
+ * Helper class for handling static scene geometry. All beziers of all layers
+ * are baked into one vertex buffer object as a single triangle strip, joined
+ * with degenerate triangles, so that any continuous range of beziers can be
+ * drawn with one draw call. Control points are kept in layer space, each
+ * vertex refers to a layer transform slot in vertex shader uniform array.
+ */
+public final class KittyBatch {
+
+	// Number of layer transforms in vertex shader, must match batch_vs.txt.
+	public static final int LAYER_SLOTS = 16;
+
+	// Vertex attribute sizes and offsets in floats.
+	private static final int ATTRIB_BEZIER_POS = 0;
+	private static final int ATTRIB_COLOR = 11;
+	private static final int ATTRIB_CONTROL_PTS0 = 3;
+	private static final int ATTRIB_CONTROL_PTS1 = 7;
+	private static final int ATTRIB_TIME = 14;
+	// Vertex size in floats.
+	private static final int VERTEX_SIZE = 16;
+
+	// First vertex and vertex count for each bezier.
+	private int[] mBezierFirst = {}, mBezierCount = {};
+	// Vertex buffer object handle.
+	private int mBufferHandle = -1;
+	// Client side copy of vertex data, kept for context recreation.
+	private FloatBuffer mBufferVertices;
+	// Rendering backend.
+	private final KittyGl mGl;
+	// Layer bezier ranges, copied from scene.
+	private int[] mLayerOffsets = { 0 };
+	// Scale from scene coordinates into pixels data was built for.
+	private float mScale;
+	// Temporary storage for bezier color and control points.
+	private final float[] mTempColor = new float[3];
+	private final float[] mTempPts = new float[16];
+
+	/**
+	 * Constructor takes rendering backend.
+	 */
+	public KittyBatch(KittyGl gl) {
+		mGl = gl;
+	}
+
+	/**
+	 * Binds vertex buffer and sets vertex attribute pointers for given
+	 * attribute handles. Handles with value -1 are ignored.
+	 */
+	public void bind(KittyGlState state, int aBezierPos, int aControlPts0,
+			int aControlPts1, int aColor, int aTime) {
+		state.bindArrayBuffer(mBufferHandle);
+		setAttrib(state, aBezierPos, 3, ATTRIB_BEZIER_POS);
+		setAttrib(state, aControlPts0, 4, ATTRIB_CONTROL_PTS0);
+		setAttrib(state, aControlPts1, 4, ATTRIB_CONTROL_PTS1);
+		setAttrib(state, aColor, 3, ATTRIB_COLOR);
+		setAttrib(state, aTime, 2, ATTRIB_TIME);
+	}
+
+	/**
+	 * Generates client side vertex data from given scene. Each bezier is split
+	 * into segments based on its size once transformed with layer scale and
+	 * scaled into pixels with given scale. Layer translation doesn't change
+	 * segment count, neither do animation offsets.
+	 */
+	public void build(KittyScene scene, float scale) {
+		int bezierCount = scene.getBezierCount();
+		mScale = scale;
+
+		// Each bezier takes two vertices per segment end point and beziers
+		// are joined with two degenerate vertices.
+		int vertexCount = 0;
+		for (int i = 0; i < scene.getLayerCount(); ++i) {
+			float layerScale = scale * scene.getLayerScale(i);
+			for (int j = scene.getLayerBezierStart(i); j < scene
+					.getLayerBezierEnd(i); ++j) {
+				scene.getPoints(j, mTempPts, 0);
+				int segmentCount = KittyTessellator.getSegmentCount(mTempPts,
+						0, layerScale);
+				vertexCount += 2 * (segmentCount + 1);
+			}
+		}
+		if (bezierCount > 1) {
+			vertexCount += (bezierCount - 1) * 2;
+		}
+
+		ByteBuffer buf = ByteBuffer.allocateDirect(4 * VERTEX_SIZE
+				* vertexCount);
+		mBufferVertices = buf.order(ByteOrder.nativeOrder()).asFloatBuffer();
+		mBezierFirst = new int[bezierCount];
+		mBezierCount = new int[bezierCount];
+		mLayerOffsets = new int[scene.getLayerCount() + 1];
+		mLayerOffsets[scene.getLayerCount()] = bezierCount;
+
+		for (int i = 0; i < scene.getLayerCount(); ++i) {
+			int bezierStart = scene.getLayerBezierStart(i);
+			int bezierEnd = scene.getLayerBezierEnd(i);
+			float layerScale = scale * scene.getLayerScale(i);
+			float slot = i % LAYER_SLOTS;
+			mLayerOffsets[i] = bezierStart;
+			for (int j = bezierStart; j < bezierEnd; ++j) {
+				scene.getPoints(j, mTempPts, 0);
+				int segmentCount = KittyTessellator.getSegmentCount(mTempPts,
+						0, layerScale);
+				scene.getColor(j, mTempColor, 0);
+				long timeStart = scene.getTimeStart(j);
+				long timeDuration = scene.getTimeDuration(j);
+
+				// Connect to previous bezier with degenerate vertices.
+				int position = mBufferVertices.position();
+				if (position > 0) {
+					for (int k = position - VERTEX_SIZE; k < position; ++k) {
+						mBufferVertices.put(mBufferVertices.get(k));
+					}
+					putVertex(0f, -1f, slot, 0, timeStart, timeDuration);
+				}
+
+				mBezierFirst[j] = mBufferVertices.position() / VERTEX_SIZE;
+				mBezierCount[j] = 2 * (segmentCount + 1);
+				for (int k = 0; k <= segmentCount; ++k) {
+					float t = (float) k / segmentCount;
+					putVertex(t, -1f, slot, 0, timeStart, timeDuration);
+					putVertex(t, 1f, slot, 8, timeStart, timeDuration);
+				}
+			}
+		}
+		mBufferVertices.position(0);
+	}
+
+	/**
+	 * Draws vertices of beziers from index bezierStart to bezierEnd,
+	 * exclusive, with one draw call. Returns number of draw calls issued.
+	 */
+	private int drawArrays(int bezierStart, int bezierEnd) {
+		if (bezierStart >= bezierEnd) {
+			return 0;
+		}
+		int first = mBezierFirst[bezierStart];
+		int count = mBezierFirst[bezierEnd - 1] + mBezierCount[bezierEnd - 1]
+				- first;
+		mGl.glDrawArrays(GLES20.GL_TRIANGLE_STRIP, first, count);
+		return 1;
+	}
+
+	/**
+	 * Draws beziers from index bezierStart to bezierEnd, exclusive, possibly
+	 * spanning several layers. Range is drawn with one draw call per
+	 * LAYER_SLOTS layers it touches, allowing culled beziers to be left out
+	 * of otherwise continuous layer ranges. Layer transforms are given as
+	 * translate x, translate y and scale for each scene layer, applied after
+	 * layer space points have been scaled, and are set to uniform array with
+	 * given handle. This method should be called only after call to bind()
+	 * with given shader in use. Returns number of draw calls issued.
+	 */
+	public int drawBeziers(int bezierStart, int bezierEnd,
+			KittyShader shader, int uLayerTransforms, float[] layerTransforms) {
+		int draws = 0;
+		int layerCount = mLayerOffsets.length - 1;
+		while (bezierStart < bezierEnd) {
+			int layer = getLayer(bezierStart);
+			int slotStart = layer - layer % LAYER_SLOTS;
+			int slotEnd = Math.min(slotStart + LAYER_SLOTS, layerCount);
+			int end = Math.min(bezierEnd, mLayerOffsets[slotEnd]);
+			shader.setUniform3fv(uLayerTransforms, slotEnd - slotStart,
+					layerTransforms, slotStart * 3);
+			draws += drawArrays(bezierStart, end);
+			bezierStart = end;
+		}
+		return draws;
+	}
+
+	/**
+	 * Returns index of layer given bezier is on.
+	 */
+	private int getLayer(int bezier) {
+		// Last layer starting at or before bezier, empty layers before it
+		// start at the same bezier.
+		int low = 0, high = mLayerOffsets.length - 2;
+		while (low < high) {
+			int mid = (low + high + 1) >>> 1;
+			if (mLayerOffsets[mid] <= bezier) {
+				low = mid;
+			} else {
+				high = mid - 1;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * Getter for scale current vertex data was built for.
+	 */
+	public float getScale() {
+		return mScale;
+	}
+
+	/**
+	 * Uploads vertex data into vertex buffer object. Should be called once
+	 * OpenGL context has been (re)created. Leaves array buffer unbound.
+	 */
+	public void init() {
+		// Just in case.
+		reset();
+
+		if (mBufferVertices == null) {
+			return;
+		}
+
+		int handle[] = { 0 };
+		mGl.glGenBuffers(1, handle, 0);
+		mBufferHandle = handle[0];
+		mGl.glBindBuffer(GLES20.GL_ARRAY_BUFFER, mBufferHandle);
+		mGl.glBufferData(GLES20.GL_ARRAY_BUFFER,
+				mBufferVertices.capacity() * 4, mBufferVertices,
+				GLES20.GL_STATIC_DRAW);
+		mGl.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
+	}
+
+	/**
+	 * Adds one vertex into client side vertex data.
+	 */
+	private void putVertex(float t, float side, float slot, int ptsIdx,
+			long timeStart, long timeDuration) {
+		mBufferVertices.put(t).put(side).put(slot);
+		mBufferVertices.put(mTempPts, ptsIdx, 8);
+		mBufferVertices.put(mTempColor, 0, 3);
+		mBufferVertices.put(timeStart).put(timeDuration);
+	}
+
+	/**
+	 * Releases vertex buffer object.
+	 */
+	public void reset() {
+		int[] handle = { mBufferHandle };
+		mGl.glDeleteBuffers(1, handle, 0);
+		mBufferHandle = -1;
+	}
+
+	/**
+	 * Helper method for setting vertex attribute pointer into bound vertex
+	 * buffer.
+	 */
+	private void setAttrib(KittyGlState state, int handle, int size,
+			int offset) {
+		state.setAttribPointer(handle, size, GLES20.GL_FLOAT, 4 * VERTEX_SIZE,
+				4 * offset);
+	}
+
+}
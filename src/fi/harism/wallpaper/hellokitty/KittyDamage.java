@@ -0,0 +1,144 @@
+/*
+   Copyright 2012 Harri Smatt
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package fi.harism.wallpaper.hellokitty;
+
+import android.opengl.GLES20;
+
+/**
+ * Helper class for tracking damaged screen area. Area is accumulated in
+ * normalized device coordinates and applied as scissor rectangle in pixels.
+ */
+public final class KittyDamage {
+
+	// Extra pixels around damaged area to cover antialiasing and rounding.
+	private static final int PADDING = 2;
+
+	// True if whole screen is damaged.
+	private boolean mFull;
+	// Rendering backend.
+	private final KittyGl mGl;
+	// Damaged area bounds in normalized device coordinates.
+	private float mMinX, mMinY, mMaxX, mMaxY;
+	// Scissor rectangle, padding included, in normalized device coordinates.
+	private final float[] mScissorBounds = { -1f, -1f, 1f, 1f };
+	// Temporary storage for bezier bounds and their transform.
+	private final float[] mTempBounds = new float[4];
+	private final KittyTransform mTempTransform = new KittyTransform();
+
+	/**
+	 * Constructor takes rendering backend.
+	 */
+	public KittyDamage(KittyGl gl) {
+		mGl = gl;
+	}
+
+	/**
+	 * Adds given area, in normalized device coordinates, to damaged area.
+	 */
+	public void add(float x0, float y0, float x1, float y1) {
+		mMinX = Math.min(mMinX, Math.min(x0, x1));
+		mMinY = Math.min(mMinY, Math.min(y0, y1));
+		mMaxX = Math.max(mMaxX, Math.max(x0, x1));
+		mMaxY = Math.max(mMaxY, Math.max(y0, y1));
+	}
+
+	/**
+	 * Adds area covered by given beziers on given scene layer, moved by given
+	 * offset and scaled by given aspect ratio, to damaged area.
+	 */
+	public void add(KittyScene scene, int layer, int bezierStart,
+			int bezierEnd, float offsetX, float offsetY, float[] aspectRatio) {
+		if (bezierStart >= bezierEnd) {
+			return;
+		}
+		scene.getBounds(bezierStart, bezierEnd, mTempBounds);
+		scene.getLayerTransform(layer, mTempTransform);
+		mTempTransform.translate(offsetX, offsetY);
+		mTempTransform.scale(aspectRatio[0], aspectRatio[1]);
+		mTempTransform.mapRect(mTempBounds);
+		add(mTempBounds[0], mTempBounds[1], mTempBounds[2], mTempBounds[3]);
+	}
+
+	/**
+	 * Stores area set with latest call to scissor(int, int) into given array
+	 * as min x, min y, max x, max y in normalized device coordinates. Nothing
+	 * drawn outside of it reaches the screen.
+	 */
+	public void getScissorBounds(float[] dst) {
+		System.arraycopy(mScissorBounds, 0, dst, 0, 4);
+	}
+
+	/**
+	 * Returns true if nothing has been damaged.
+	 */
+	public boolean isEmpty() {
+		return !mFull && (mMinX >= mMaxX || mMinY >= mMaxY);
+	}
+
+	/**
+	 * Returns true if whole screen has been damaged.
+	 */
+	public boolean isFull() {
+		return mFull;
+	}
+
+	/**
+	 * Resets damaged area to empty.
+	 */
+	public void reset() {
+		mFull = false;
+		mMinX = mMinY = Float.MAX_VALUE;
+		mMaxX = mMaxY = -Float.MAX_VALUE;
+	}
+
+	/**
+	 * Enables scissor test limited to damaged area on a buffer of given size,
+	 * or disables it if whole screen is damaged.
+	 */
+	public void scissor(int width, int height) {
+		if (mFull) {
+			mScissorBounds[0] = mScissorBounds[1] = -1f;
+			mScissorBounds[2] = mScissorBounds[3] = 1f;
+			mGl.glDisable(GLES20.GL_SCISSOR_TEST);
+			return;
+		}
+
+		int x0 = (int) Math.floor((mMinX + 1) * 0.5f * width) - PADDING;
+		int y0 = (int) Math.floor((mMinY + 1) * 0.5f * height) - PADDING;
+		int x1 = (int) Math.ceil((mMaxX + 1) * 0.5f * width) + PADDING;
+		int y1 = (int) Math.ceil((mMaxY + 1) * 0.5f * height) + PADDING;
+		x0 = Math.max(0, x0);
+		y0 = Math.max(0, y0);
+		x1 = Math.max(x0, Math.min(width, x1));
+		y1 = Math.max(y0, Math.min(height, y1));
+		mScissorBounds[0] = x0 * 2f / width - 1f;
+		mScissorBounds[1] = y0 * 2f / height - 1f;
+		mScissorBounds[2] = x1 * 2f / width - 1f;
+		mScissorBounds[3] = y1 * 2f / height - 1f;
+
+		mGl.glEnable(GLES20.GL_SCISSOR_TEST);
+		mGl.glScissor(x0, y0, x1 - x0, y1 - y0);
+	}
+
+	/**
+	 * Marks whole screen damaged.
+	 */
+	public void setFull() {
+		mFull = true;
+	}
+
+}
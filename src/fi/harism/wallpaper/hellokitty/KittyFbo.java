@@ -23,10 +23,19 @@ import android.opengl.GLES20;
  */
 public final class KittyFbo {
 
+	// Texture color formats, opaque ones take less memory.
+	public static final int FORMAT_RGB565 = 0;
+	public static final int FORMAT_RGB888 = 1;
+	public static final int FORMAT_RGBA8888 = 2;
+
 	// Optional depth buffer handle.
 	private int mDepthBufferHandle = -1;
 	// FBO handle.
 	private int mFrameBufferHandle = -1;
+	// Texture color format.
+	private int mFormat = FORMAT_RGBA8888;
+	// Rendering backend.
+	private final KittyGl mGl;
 	// Optional stencil buffer handle.
 	private int mStencilBufferHandle = -1;
 	// Generated texture handles.
@@ -34,12 +43,19 @@ public final class KittyFbo {
 	// FBO textures and depth buffer size.
 	private int mWidth, mHeight;
 
+	/**
+	 * Constructor takes rendering backend.
+	 */
+	public KittyFbo(KittyGl gl) {
+		mGl = gl;
+	}
+
 	/**
 	 * Binds this FBO into use and adjusts viewport to FBO size.
 	 */
 	public void bind() {
-		GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, mFrameBufferHandle);
-		GLES20.glViewport(0, 0, mWidth, mHeight);
+		mGl.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, mFrameBufferHandle);
+		mGl.glViewport(0, 0, mWidth, mHeight);
 	}
 
 	/**
@@ -50,11 +66,28 @@ public final class KittyFbo {
 	 *            Index of texture to bind.
 	 */
 	public void bindTexture(int index) {
-		GLES20.glFramebufferTexture2D(GLES20.GL_FRAMEBUFFER,
+		mGl.glFramebufferTexture2D(GLES20.GL_FRAMEBUFFER,
 				GLES20.GL_COLOR_ATTACHMENT0, GLES20.GL_TEXTURE_2D,
 				mTextureHandles[index], 0);
 	}
 
+	/**
+	 * Returns bytes per pixel of given texture format. Drivers pad 24 bit
+	 * RGB textures into 32 bits, so only RGB565 takes less than 4 bytes.
+	 */
+	public static int getBytesPerPixel(int format) {
+		return format == FORMAT_RGB565 ? 2 : 4;
+	}
+
+	/**
+	 * Getter for texture color format.
+	 * 
+	 * @return One of FORMAT_* values.
+	 */
+	public int getFormat() {
+		return mFormat;
+	}
+
 	/**
 	 * Getter for FBO height.
 	 * 
@@ -84,9 +117,19 @@ public final class KittyFbo {
 		return mWidth;
 	}
 
+	/**
+	 * Getter for size of FBO textures in bytes.
+	 * 
+	 * @return Texture memory size in bytes.
+	 */
+	public int getSize() {
+		return mWidth * mHeight * mTextureHandles.length
+				* getBytesPerPixel(mFormat);
+	}
+
 	/**
 	 * Initializes FBO with given parameters. Calls simply init(int, int, int,
-	 * boolean) without render buffer generations.
+	 * int) with RGBA textures.
 	 * 
 	 * @param width
 	 *            Width in pixels.
@@ -96,7 +139,24 @@ public final class KittyFbo {
 	 *            Number of textures to generate.
 	 */
 	public void init(int width, int height, int textureCount) {
-		init(width, height, textureCount, false, false);
+		init(width, height, textureCount, FORMAT_RGBA8888);
+	}
+
+	/**
+	 * Initializes FBO with given parameters. Calls simply init(int, int, int,
+	 * int, boolean, boolean) without render buffer generations.
+	 * 
+	 * @param width
+	 *            Width in pixels.
+	 * @param height
+	 *            Height in pixels.
+	 * @param textureCount
+	 *            Number of textures to generate.
+	 * @param format
+	 *            Texture color format, one of FORMAT_* values.
+	 */
+	public void init(int width, int height, int textureCount, int format) {
+		init(width, height, textureCount, format, false, false);
 	}
 
 	/**
@@ -110,83 +170,100 @@ public final class KittyFbo {
 	 *            FBO height in pixels
 	 * @param textureCount
 	 *            Number of textures to generate
+	 * @param format
+	 *            Texture color format, one of FORMAT_* values
 	 * @param genDepthBuffer
 	 *            If true, depth buffer is allocated for this FBO @ param
 	 *            genStencilBuffer If true, stencil buffer is allocated for this
 	 *            FBO
 	 */
-	public void init(int width, int height, int textureCount,
+	public void init(int width, int height, int textureCount, int format,
 			boolean genDepthBuffer, boolean genStencilBuffer) {
 
 		// Just in case.
 		reset();
 
-		// Store FBO size.
+		// Store FBO size and format.
 		mWidth = width;
 		mHeight = height;
+		mFormat = format;
+		int glFormat = format == FORMAT_RGBA8888 ? GLES20.GL_RGBA
+				: GLES20.GL_RGB;
+		int glType = format == FORMAT_RGB565 ? GLES20.GL_UNSIGNED_SHORT_5_6_5
+				: GLES20.GL_UNSIGNED_BYTE;
 
 		// Genereta FBO.
 		int handle[] = { 0 };
-		GLES20.glGenFramebuffers(1, handle, 0);
+		mGl.glGenFramebuffers(1, handle, 0);
 		mFrameBufferHandle = handle[0];
-		GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, mFrameBufferHandle);
+		mGl.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, mFrameBufferHandle);
 
 		// Generate textures.
 		mTextureHandles = new int[textureCount];
-		GLES20.glGenTextures(textureCount, mTextureHandles, 0);
+		mGl.glGenTextures(textureCount, mTextureHandles, 0);
 		for (int texture : mTextureHandles) {
-			GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, texture);
-			GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D,
+			mGl.glBindTexture(GLES20.GL_TEXTURE_2D, texture);
+			mGl.glTexParameteri(GLES20.GL_TEXTURE_2D,
 					GLES20.GL_TEXTURE_WRAP_S, GLES20.GL_CLAMP_TO_EDGE);
-			GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D,
+			mGl.glTexParameteri(GLES20.GL_TEXTURE_2D,
 					GLES20.GL_TEXTURE_WRAP_T, GLES20.GL_CLAMP_TO_EDGE);
-			GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D,
+			mGl.glTexParameteri(GLES20.GL_TEXTURE_2D,
 					GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_NEAREST);
-			GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D,
+			mGl.glTexParameteri(GLES20.GL_TEXTURE_2D,
 					GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_LINEAR);
-			GLES20.glTexImage2D(GLES20.GL_TEXTURE_2D, 0, GLES20.GL_RGBA,
-					mWidth, mHeight, 0, GLES20.GL_RGBA,
-					GLES20.GL_UNSIGNED_BYTE, null);
+			mGl.glTexImage2D(GLES20.GL_TEXTURE_2D, 0, glFormat, mWidth,
+					mHeight, 0, glFormat, glType, null);
 		}
 
 		// Generate depth buffer.
 		if (genDepthBuffer) {
-			GLES20.glGenRenderbuffers(1, handle, 0);
+			mGl.glGenRenderbuffers(1, handle, 0);
 			mDepthBufferHandle = handle[0];
-			GLES20.glBindRenderbuffer(GLES20.GL_RENDERBUFFER,
+			mGl.glBindRenderbuffer(GLES20.GL_RENDERBUFFER,
 					mDepthBufferHandle);
-			GLES20.glRenderbufferStorage(GLES20.GL_RENDERBUFFER,
+			mGl.glRenderbufferStorage(GLES20.GL_RENDERBUFFER,
 					GLES20.GL_DEPTH_COMPONENT16, width, height);
-			GLES20.glFramebufferRenderbuffer(GLES20.GL_FRAMEBUFFER,
+			mGl.glFramebufferRenderbuffer(GLES20.GL_FRAMEBUFFER,
 					GLES20.GL_DEPTH_ATTACHMENT, GLES20.GL_RENDERBUFFER,
 					mDepthBufferHandle);
 		}
 		// Generate stencil buffer.
 		if (genStencilBuffer) {
-			GLES20.glGenRenderbuffers(1, handle, 0);
+			mGl.glGenRenderbuffers(1, handle, 0);
 			mStencilBufferHandle = handle[0];
-			GLES20.glBindRenderbuffer(GLES20.GL_RENDERBUFFER,
+			mGl.glBindRenderbuffer(GLES20.GL_RENDERBUFFER,
 					mStencilBufferHandle);
-			GLES20.glRenderbufferStorage(GLES20.GL_RENDERBUFFER,
+			mGl.glRenderbufferStorage(GLES20.GL_RENDERBUFFER,
 					GLES20.GL_STENCIL_INDEX8, width, height);
-			GLES20.glFramebufferRenderbuffer(GLES20.GL_FRAMEBUFFER,
+			mGl.glFramebufferRenderbuffer(GLES20.GL_FRAMEBUFFER,
 					GLES20.GL_STENCIL_ATTACHMENT, GLES20.GL_RENDERBUFFER,
 					mStencilBufferHandle);
 		}
 	}
 
+	/**
+	 * Returns true if FBO is complete with its first texture attached, false
+	 * if driver can't render into its format. Leaves this FBO bound.
+	 */
+	public boolean isComplete() {
+		bind();
+		bindTexture(0);
+		return mGl.glCheckFramebufferStatus(GLES20.GL_FRAMEBUFFER)
+				== GLES20.GL_FRAMEBUFFER_COMPLETE;
+	}
+
 	/**
 	 * Resets this FBO into its initial state, releasing all resources that were
 	 * allocated during a call to init.
 	 */
 	public void reset() {
 		int[] handle = { mFrameBufferHandle };
-		GLES20.glDeleteFramebuffers(1, handle, 0);
+		mGl.glDeleteFramebuffers(1, handle, 0);
 		handle[0] = mDepthBufferHandle;
-		GLES20.glDeleteRenderbuffers(1, handle, 0);
+		mGl.glDeleteRenderbuffers(1, handle, 0);
 		handle[0] = mStencilBufferHandle;
-		GLES20.glDeleteRenderbuffers(1, handle, 0);
-		GLES20.glDeleteTextures(mTextureHandles.length, mTextureHandles, 0);
+		mGl.glDeleteRenderbuffers(1, handle, 0);
+		mGl.glDeleteTextures(mTextureHandles.length, mTextureHandles, 0);
 		mFrameBufferHandle = mDepthBufferHandle = mStencilBufferHandle = -1;
 		mTextureHandles = new int[0];
 	}
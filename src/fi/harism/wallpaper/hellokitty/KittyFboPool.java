@@ -0,0 +1,178 @@
+/*
+   Copyright 2012 Harri Smatt
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package fi.harism.wallpaper.hellokitty;
+
+import java.util.Arrays;
+
+/**
+ * Pool of single texture FBOs keyed by size and format. Released FBOs are
+ * kept for reuse, for example when view is rotated back or FBO scale
+ * changes, until total texture size would exceed given budget. Formats the
+ * driver can't render into are replaced with RGBA.
+ */
+public final class KittyFboPool {
+
+	// Memory budget in bytes.
+	private final int mBudget;
+	// Number of pooled FBOs.
+	private int mCount;
+	// Bit mask of formats found unsupported.
+	private int mFormatsUnsupported;
+	// Pooled FBOs.
+	private KittyFbo[] mFbos = new KittyFbo[8];
+	// Rendering backend.
+	private final KittyGl mGl;
+	// Whether each FBO is in use.
+	private boolean[] mUsed = new boolean[8];
+	// Usage counter for finding least recently released FBO.
+	private long mUseCounter;
+	// Last usage for each FBO.
+	private long[] mUses = new long[8];
+
+	/**
+	 * Constructor takes rendering backend and memory budget in bytes.
+	 */
+	public KittyFboPool(KittyGl gl, int budget) {
+		mGl = gl;
+		mBudget = budget;
+	}
+
+	/**
+	 * Returns FBO of given size and format, reusing a released one if
+	 * possible. Released FBOs are freed to make room for new one, which is
+	 * allocated even if budget is exceeded, see getAvailable() for checking
+	 * whether it fits in first. Returned FBO may have RGBA format if driver
+	 * doesn't support requested one. Leaves FBO bound.
+	 */
+	public KittyFbo acquire(int width, int height, int format) {
+		if ((mFormatsUnsupported & (1 << format)) != 0) {
+			format = KittyFbo.FORMAT_RGBA8888;
+		}
+		for (int i = 0; i < mCount; ++i) {
+			KittyFbo fbo = mFbos[i];
+			if (!mUsed[i] && fbo.getWidth() == width
+					&& fbo.getHeight() == height
+					&& fbo.getFormat() == format) {
+				mUsed[i] = true;
+				fbo.bind();
+				return fbo;
+			}
+		}
+
+		trim(mBudget - width * height * KittyFbo.getBytesPerPixel(format));
+		KittyFbo fbo = new KittyFbo(mGl);
+		fbo.init(width, height, 1, format);
+		if (!fbo.isComplete() && format != KittyFbo.FORMAT_RGBA8888) {
+			mFormatsUnsupported |= 1 << format;
+			fbo.init(width, height, 1, KittyFbo.FORMAT_RGBA8888);
+			fbo.isComplete();
+		}
+
+		if (mCount == mFbos.length) {
+			mFbos = Arrays.copyOf(mFbos, mCount * 2);
+			mUsed = Arrays.copyOf(mUsed, mCount * 2);
+			mUses = Arrays.copyOf(mUses, mCount * 2);
+		}
+		mFbos[mCount] = fbo;
+		mUsed[mCount] = true;
+		++mCount;
+		return fbo;
+	}
+
+	/**
+	 * Returns number of bytes that can be acquired without exceeding budget,
+	 * released FBOs are counted as available.
+	 */
+	public int getAvailable() {
+		int size = 0;
+		for (int i = 0; i < mCount; ++i) {
+			if (mUsed[i]) {
+				size += mFbos[i].getSize();
+			}
+		}
+		return mBudget - size;
+	}
+
+	/**
+	 * Returns size of all pooled FBOs in bytes.
+	 */
+	public int getSize() {
+		int size = 0;
+		for (int i = 0; i < mCount; ++i) {
+			size += mFbos[i].getSize();
+		}
+		return size;
+	}
+
+	/**
+	 * Releases given FBO back into pool. It is kept for reuse if it fits in
+	 * budget.
+	 */
+	public void release(KittyFbo fbo) {
+		for (int i = 0; i < mCount; ++i) {
+			if (mFbos[i] == fbo) {
+				mUsed[i] = false;
+				mUses[i] = ++mUseCounter;
+			}
+		}
+		trim(mBudget);
+	}
+
+	/**
+	 * Releases entry at given index and moves last entry into its place.
+	 */
+	private void remove(int index) {
+		mFbos[index].reset();
+		--mCount;
+		mFbos[index] = mFbos[mCount];
+		mUsed[index] = mUsed[mCount];
+		mUses[index] = mUses[mCount];
+		mFbos[mCount] = null;
+	}
+
+	/**
+	 * Releases all FBOs, including ones in use. Should be called once OpenGL
+	 * context has been (re)created, before acquiring FBOs.
+	 */
+	public void reset() {
+		while (mCount > 0) {
+			remove(mCount - 1);
+		}
+	}
+
+	/**
+	 * Frees least recently released FBOs until pool size is at most given
+	 * size, or there are only FBOs in use left.
+	 */
+	private void trim(int size) {
+		int poolSize = getSize();
+		while (poolSize > size) {
+			int oldest = -1;
+			for (int i = 0; i < mCount; ++i) {
+				if (!mUsed[i] && (oldest < 0 || mUses[i] < mUses[oldest])) {
+					oldest = i;
+				}
+			}
+			if (oldest < 0) {
+				return;
+			}
+			poolSize -= mFbos[oldest].getSize();
+			remove(oldest);
+		}
+	}
+
+}
@@ -0,0 +1,118 @@
+/*
+   Copyright 2012 Harri Smatt
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package fi.harism.wallpaper.hellokitty;
+
+/**
+ * Resolution scale controller for offscreen FBO. Incremental drawing and
+ * full redraw states have separate scales, which are either fixed or
+ * adjusted at runtime. Adaptive scale is lowered if too many frames miss
+ * their vsync and raised again once frames have been on time for a while.
+ */
+public final class KittyFboScaler {
+
+	// Scale groups.
+	private static final int GROUP_INCREMENTAL = 0;
+	private static final int GROUP_REDRAW = 1;
+	private static final int GROUP_COUNT = 2;
+
+	// Scale change per adjustment.
+	private static final float SCALE_STEP = .125f;
+	// Frames per measurement window.
+	private static final int WINDOW_FRAMES = 60;
+	// Late frames within window causing scale to be lowered.
+	private static final int WINDOW_LATE_FRAMES = WINDOW_FRAMES / 10;
+	// Windows without late frames before scale is raised.
+	private static final int WINDOWS_ON_TIME = 5;
+
+	// Frames and late frames within current window per group.
+	private final int[] mFrames = new int[GROUP_COUNT];
+	private final int[] mFramesLate = new int[GROUP_COUNT];
+	// Maximum scale per group.
+	private final float[] mScaleMax = new float[GROUP_COUNT];
+	// Minimum scale, same as maximum scales for fixed scaling.
+	private final float mScaleMin;
+	// Current scale per group.
+	private final float[] mScales = new float[GROUP_COUNT];
+	// Consecutive windows without late frames per group.
+	private final int[] mWindowsOnTime = new int[GROUP_COUNT];
+
+	/**
+	 * Constructor takes maximum scales for incremental drawing and full
+	 * redraw states, and minimum scale adaptive scaling can use. Scaling is
+	 * fixed for groups whose maximum scale doesn't exceed minimum scale.
+	 */
+	public KittyFboScaler(float scaleIncremental, float scaleRedraw,
+			float scaleMin) {
+		mScales[GROUP_INCREMENTAL] = scaleIncremental;
+		mScales[GROUP_REDRAW] = scaleRedraw;
+		mScaleMax[GROUP_INCREMENTAL] = scaleIncremental;
+		mScaleMax[GROUP_REDRAW] = scaleRedraw;
+		mScaleMin = scaleMin;
+	}
+
+	/**
+	 * Records frame rendered in given KittyStats.STATE_* state and number of
+	 * vsyncs it missed.
+	 */
+	public void frameEnded(int state, int missedVsyncs) {
+		int group = getGroup(state);
+		if (mScaleMax[group] <= mScaleMin) {
+			return;
+		}
+		if (missedVsyncs > 0) {
+			++mFramesLate[group];
+		}
+		if (++mFrames[group] < WINDOW_FRAMES) {
+			return;
+		}
+
+		float scale = mScales[group];
+		if (mFramesLate[group] >= WINDOW_LATE_FRAMES) {
+			scale = Math.max(mScaleMin, scale - SCALE_STEP);
+			mWindowsOnTime[group] = 0;
+		} else if (mFramesLate[group] > 0) {
+			mWindowsOnTime[group] = 0;
+		} else if (++mWindowsOnTime[group] >= WINDOWS_ON_TIME) {
+			scale = Math.min(mScaleMax[group], scale + SCALE_STEP);
+			mWindowsOnTime[group] = 0;
+		}
+		mFrames[group] = mFramesLate[group] = 0;
+		mScales[group] = scale;
+	}
+
+	/**
+	 * Returns scale group for given KittyStats.STATE_* state. Moving layers
+	 * and clearing redraw whole FBO every frame, other states draw into it
+	 * incrementally.
+	 */
+	private static int getGroup(int state) {
+		switch (state) {
+		case KittyStats.STATE_CLEAR:
+		case KittyStats.STATE_MOVE:
+			return GROUP_REDRAW;
+		default:
+			return GROUP_INCREMENTAL;
+		}
+	}
+
+	/**
+	 * Returns current scale for given KittyStats.STATE_* state.
+	 */
+	public float getScale(int state) {
+		return mScales[getGroup(state)];
+	}
+
+}
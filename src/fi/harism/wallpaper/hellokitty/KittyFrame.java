@@ -0,0 +1,291 @@
+/*
+   Copyright 2012 Harri Smatt
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package fi.harism.wallpaper.hellokitty;
+
+import java.util.Arrays;
+
+/**
+ * Prepared frame, a list of draw commands with bezier control points and
+ * transforms, damaged area and time of next change. Frames are filled by
+ * KittyAnimator and drawn by KittyRenderer, possibly on different threads.
+ * Storage grows as needed and is reused between frames.
+ */
+public final class KittyFrame {
+
+	// Command types.
+	public static final int CMD_BATCH = 0;
+	public static final int CMD_BEZIER = 1;
+	public static final int CMD_CACHED = 2;
+	public static final int CMD_CLEAR = 3;
+	public static final int CMD_LAYERS = 4;
+	public static final int CMD_MOVE = 5;
+	// Batch time limit covering all beziers.
+	public static final float TIME_INFINITE = 1e9f;
+
+	// Animation frame was prepared for, -1 if none.
+	private int mAnimation;
+	// Bezier control points, 16 coordinates per bezier.
+	private float[] mBeziers = new float[16 * 16];
+	// Number of beziers.
+	private int mBezierCount;
+	// Bezier colors.
+	private float[] mColors = new float[16 * 3];
+	// Command count.
+	private int mCommandCount;
+	// Command type and two integer arguments per command.
+	private int[] mCommands = new int[8 * 3];
+	// Area changed by this frame.
+	private final KittyDamage mDamage;
+	// Frame rate limit for next frame, zero for display rate.
+	private float mFrameRate;
+	// Command float arguments, four per command.
+	private float[] mParams = new float[8 * 4];
+	// Segment count per bezier.
+	private int[] mSegmentCounts = new int[16];
+	// State frame was rendered in, one of KittyStats.STATE_* values.
+	private int mState;
+	// Time frame was prepared for and time of next change.
+	private long mTime, mTimeNext;
+
+	/**
+	 * Constructor takes rendering backend used for damage scissoring.
+	 */
+	public KittyFrame(KittyGl gl) {
+		mDamage = new KittyDamage(gl);
+	}
+
+	/**
+	 * Adds command for drawing bezier range from bezierStart to bezierEnd,
+	 * exclusive, as batch. timeStart and timeEnd limit beziers to given time
+	 * window. Beziers aren't culled and should be within damaged area.
+	 */
+	public void addBatch(int bezierStart, int bezierEnd, float timeStart,
+			float timeEnd) {
+		addCommand(CMD_BATCH, bezierStart, bezierEnd, timeStart, timeEnd, 0f,
+				0f);
+	}
+
+	/**
+	 * Adds command for drawing bezier given as 16 control point coordinates
+	 * with given color and tessellated into given number of segments. Control
+	 * points are scaled with given scale and translated afterwards, transform
+	 * is stored as first three command parameters.
+	 */
+	public void addBezier(float[] points, int pointsIdx, float[] color,
+			int colorIdx, int segmentCount, float translateX,
+			float translateY, float scale) {
+		if (mBezierCount == mSegmentCounts.length) {
+			mBeziers = Arrays.copyOf(mBeziers, mBezierCount * 2 * 16);
+			mColors = Arrays.copyOf(mColors, mBezierCount * 2 * 3);
+			mSegmentCounts = Arrays.copyOf(mSegmentCounts, mBezierCount * 2);
+		}
+		System.arraycopy(points, pointsIdx, mBeziers, mBezierCount * 16, 16);
+		System.arraycopy(color, colorIdx, mColors, mBezierCount * 3, 3);
+		mSegmentCounts[mBezierCount] = segmentCount;
+		addCommand(CMD_BEZIER, mBezierCount++, 0, translateX, translateY,
+				scale, 0f);
+	}
+
+	/**
+	 * Adds command for drawing layer range from layer cache, or as batch if
+	 * it doesn't fit in cache. Opaque ranges are drawn on top of background
+	 * color, others blended on top of current content.
+	 */
+	public void addCached(int layerStart, int layerEnd, boolean opaque) {
+		addCommand(CMD_CACHED, layerStart, layerEnd, opaque ? 1f : 0f, 0f,
+				0f, 0f);
+	}
+
+	/**
+	 * Adds command for clearing buffer to background color.
+	 */
+	public void addClear() {
+		addCommand(CMD_CLEAR, 0, 0, 0f, 0f, 0f, 0f);
+	}
+
+	/**
+	 * Adds new command.
+	 */
+	private void addCommand(int type, int arg0, int arg1, float param0,
+			float param1, float param2, float param3) {
+		if (mCommandCount * 3 == mCommands.length) {
+			mCommands = Arrays.copyOf(mCommands, mCommandCount * 2 * 3);
+			mParams = Arrays.copyOf(mParams, mCommandCount * 2 * 4);
+		}
+		int[] commands = mCommands;
+		commands[mCommandCount * 3 + 0] = type;
+		commands[mCommandCount * 3 + 1] = arg0;
+		commands[mCommandCount * 3 + 2] = arg1;
+		float[] params = mParams;
+		params[mCommandCount * 4 + 0] = param0;
+		params[mCommandCount * 4 + 1] = param1;
+		params[mCommandCount * 4 + 2] = param2;
+		params[mCommandCount * 4 + 3] = param3;
+		++mCommandCount;
+	}
+
+	/**
+	 * Adds command for drawing layer range as batch. tStart and tEnd are
+	 * values between [0, 1] and timeStart and timeEnd limit beziers to given
+	 * time window.
+	 */
+	public void addLayers(int layerStart, int layerEnd, float tStart,
+			float tEnd, float timeStart, float timeEnd) {
+		addCommand(CMD_LAYERS, layerStart, layerEnd, tStart, tEnd, timeStart,
+				timeEnd);
+	}
+
+	/**
+	 * Adds command for drawing given layer as batch, moved by given offset
+	 * which is stored as first two command parameters.
+	 */
+	public void addMove(int layer, float offsetX, float offsetY) {
+		addCommand(CMD_MOVE, layer, layer + 1, offsetX, offsetY, 0f, 0f);
+	}
+
+	/**
+	 * Returns animation frame was prepared for, -1 if none.
+	 */
+	public int getAnimation() {
+		return mAnimation;
+	}
+
+	/**
+	 * Returns first integer argument of given command, bezier index for
+	 * bezier commands, first bezier for batch commands and first layer
+	 * otherwise.
+	 */
+	public int getArg0(int cmd) {
+		return mCommands[cmd * 3 + 1];
+	}
+
+	/**
+	 * Returns second integer argument of given command, bezier or layer
+	 * range end.
+	 */
+	public int getArg1(int cmd) {
+		return mCommands[cmd * 3 + 2];
+	}
+
+	/**
+	 * Returns bezier control point array, 16 coordinates per bezier.
+	 */
+	public float[] getBeziers() {
+		return mBeziers;
+	}
+
+	/**
+	 * Returns bezier color array, 3 components per bezier.
+	 */
+	public float[] getColors() {
+		return mColors;
+	}
+
+	/**
+	 * Returns number of commands.
+	 */
+	public int getCommandCount() {
+		return mCommandCount;
+	}
+
+	/**
+	 * Returns type of given command.
+	 */
+	public int getCommandType(int cmd) {
+		return mCommands[cmd * 3];
+	}
+
+	/**
+	 * Returns area changed by this frame.
+	 */
+	public KittyDamage getDamage() {
+		return mDamage;
+	}
+
+	/**
+	 * Returns frame rate limit for next frame, zero for display rate.
+	 */
+	public float getFrameRate() {
+		return mFrameRate;
+	}
+
+	/**
+	 * Returns float argument with given index of given command.
+	 */
+	public float getParam(int cmd, int index) {
+		return mParams[cmd * 4 + index];
+	}
+
+	/**
+	 * Returns command parameters, four per command.
+	 */
+	public float[] getParams() {
+		return mParams;
+	}
+
+	/**
+	 * Returns segment count of given bezier.
+	 */
+	public int getSegmentCount(int bezier) {
+		return mSegmentCounts[bezier];
+	}
+
+	/**
+	 * Returns state frame was rendered in.
+	 */
+	public int getState() {
+		return mState;
+	}
+
+	/**
+	 * Returns time frame was prepared for.
+	 */
+	public long getTime() {
+		return mTime;
+	}
+
+	/**
+	 * Returns time of next change.
+	 */
+	public long getTimeNext() {
+		return mTimeNext;
+	}
+
+	/**
+	 * Clears commands and damaged area for frame prepared at given time.
+	 */
+	public void reset(long time) {
+		mBezierCount = mCommandCount = 0;
+		mDamage.reset();
+		mFrameRate = 0f;
+		mAnimation = -1;
+		mState = KittyStats.STATE_NONE;
+		mTime = mTimeNext = time;
+	}
+
+	/**
+	 * Sets state and animation frame is rendered in, time of next change and
+	 * frame rate limit for it.
+	 */
+	public void setNext(int state, int animation, long timeNext,
+			float frameRate) {
+		mAnimation = animation;
+		mState = state;
+		mTimeNext = timeNext;
+		mFrameRate = frameRate;
+	}
+
+}
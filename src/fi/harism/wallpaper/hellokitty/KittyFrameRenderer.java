@@ -0,0 +1,461 @@
+/*
+   Copyright 2012 Harri Smatt
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package fi.harism.wallpaper.hellokitty;
+
+import java.nio.ByteBuffer;
+
+import android.opengl.GLES20;
+
+/**
+ * Renders commands of prepared frames into FBO. Layers are drawn from static
+ * scene geometry or layer cache and culled to damaged area, single beziers
+ * are tessellated on the fly. Rendering goes through given backend only, so
+ * frames can be rendered on a plain JVM using KittyGlRecorder.
+ */
+public final class KittyFrameRenderer {
+
+	// Vertex attributes of shaders, bound to locations matching their index.
+	static final String[] ATTRIBS_BATCH = { "aBezierPos", "aControlPts0",
+			"aControlPts1", "aColor", "aTime" };
+	static final String[] ATTRIBS_BEZIER = { "aBezierPos" };
+	static final String[] ATTRIBS_SCREEN = { "aPosition" };
+	// Background fill color.
+	static final float[] COLOR_BG = { .2f, .5f, .8f };
+	// Visibility of bounds against cull bounds.
+	private static final int VISIBLE_FULL = 2;
+	private static final int VISIBLE_NONE = 0;
+	private static final int VISIBLE_PARTIAL = 1;
+
+	// True if bezier edges are antialiased.
+	private boolean mAntialias;
+	// View aspect ratio.
+	private final float mAspectRatio[] = new float[2];
+	// Vertex buffer.
+	private final ByteBuffer mBufferScreen;
+	// Area of current buffer drawing may reach in normalized device
+	// coordinates, beziers outside of it are skipped.
+	private final float[] mCullBounds = { -1f, -1f, 1f, 1f };
+	// Beziers drawn and draw calls issued during current frame.
+	private int mFrameBeziers, mFrameDraws;
+	// Rendering backend and its tracked state.
+	private final KittyGl mGl;
+	private final KittyGlState mGlState;
+	private final KittyBatch mKittyBatch;
+	private final KittyLayerCache mKittyLayerCache;
+	private KittyScene mKittyScene;
+	private final KittyTessellator mKittyTessellator = new KittyTessellator();
+	// Layer transforms, translate x, translate y and scale per layer.
+	private float[] mLayerTransforms;
+	// Scale from view coordinates into pixels.
+	private float mPixelScale;
+	// Shader variables.
+	private final KittyShader mShaderBatch;
+	private final KittyShader mShaderBezier;
+	private final KittyShader mShaderTexture;
+	// Shader attribute and uniform handles, resolved once programs have been
+	// linked.
+	private int mBatchBezierPos, mBatchColor, mBatchControlPts0,
+			mBatchControlPts1, mBatchTime;
+	private int mBatchAspectRatio, mBatchLayerTransforms, mBatchLimitsT,
+			mBatchLimitsTime;
+	private int mBezierBezierPos;
+	private int mBezierAspectRatio, mBezierColor, mBezierControlPts,
+			mBezierLimitsT, mBezierTransform;
+	private int mTexturePosition;
+	// Temporary storage for bezier bounds.
+	private final float[] mTempBounds = new float[4];
+
+	/**
+	 * Constructor takes rendering backend and its tracked state, layer cache
+	 * and shaders for static scene geometry, single beziers and textures.
+	 * Shader programs are set by caller, see init().
+	 */
+	public KittyFrameRenderer(KittyGl gl, KittyGlState glState,
+			KittyLayerCache layerCache, KittyShader shaderBatch,
+			KittyShader shaderBezier, KittyShader shaderTexture) {
+		mGl = gl;
+		mGlState = glState;
+		mKittyBatch = new KittyBatch(gl);
+		mKittyLayerCache = layerCache;
+		mShaderBatch = shaderBatch;
+		mShaderBezier = shaderBezier;
+		mShaderTexture = shaderTexture;
+
+		// Screen sized coordinates.
+		final byte SCREEN_COORDS[] = { -1, 1, -1, -1, 1, 1, 1, -1 };
+		mBufferScreen = ByteBuffer.allocateDirect(2 * 4);
+		mBufferScreen.put(SCREEN_COORDS).position(0);
+	}
+
+	/**
+	 * Returns FBO with given layer range rendered into it, or null if range is
+	 * empty or doesn't fit into layer cache. Opaque layers are rendered on top
+	 * of background color in given format, otherwise on top of transparent
+	 * black. Binds layer cache FBO if layers are rendered.
+	 */
+	private KittyFbo getLayerCache(int layerStart, int layerEnd,
+			boolean opaque, int format) {
+		KittyFbo fbo = mKittyLayerCache.get(layerStart, layerEnd);
+		if (fbo != null || (layerStart >= layerEnd && !opaque)) {
+			return fbo;
+		}
+		fbo = mKittyLayerCache.put(layerStart, layerEnd,
+				opaque ? format : KittyFbo.FORMAT_RGBA8888);
+		// Texture bindings changed while allocating cache textures.
+		mGlState.reset();
+		if (fbo != null) {
+			fbo.bind();
+			fbo.bindTexture(0);
+			mGl.glDisable(GLES20.GL_SCISSOR_TEST);
+			if (opaque) {
+				mGl.glClearColor(COLOR_BG[0], COLOR_BG[1], COLOR_BG[2], 1f);
+			} else {
+				mGl.glClearColor(0f, 0f, 0f, 0f);
+			}
+			mGl.glClear(GLES20.GL_COLOR_BUFFER_BIT);
+			renderLayers(layerStart, layerEnd, 0f, 1f,
+					-KittyFrame.TIME_INFINITE, KittyFrame.TIME_INFINITE);
+		}
+		return fbo;
+	}
+
+	/**
+	 * Returns number of draw calls issued by last call to render().
+	 */
+	public int getDrawCount() {
+		return mFrameDraws;
+	}
+
+	/**
+	 * Returns how much of given bounds, min x, min y, max x, max y in layer
+	 * space, is within cull bounds once transformed with transform starting
+	 * from transformIdx, given as translate x, translate y and scale. Returns
+	 * one of VISIBLE_* values.
+	 */
+	private int getVisibility(float[] bounds, float[] transform,
+			int transformIdx) {
+		float translateX = transform[transformIdx + 0];
+		float translateY = transform[transformIdx + 1];
+		float scale = transform[transformIdx + 2];
+		float x0 = (bounds[0] * scale + translateX) * mAspectRatio[0];
+		float y0 = (bounds[1] * scale + translateY) * mAspectRatio[1];
+		float x1 = (bounds[2] * scale + translateX) * mAspectRatio[0];
+		float y1 = (bounds[3] * scale + translateY) * mAspectRatio[1];
+		float minX = Math.min(x0, x1), maxX = Math.max(x0, x1);
+		float minY = Math.min(y0, y1), maxY = Math.max(y0, y1);
+		if (bounds[0] > bounds[2] || maxX < mCullBounds[0]
+				|| maxY < mCullBounds[1] || minX > mCullBounds[2]
+				|| minY > mCullBounds[3]) {
+			return VISIBLE_NONE;
+		}
+		if (minX >= mCullBounds[0] && minY >= mCullBounds[1]
+				&& maxX <= mCullBounds[2] && maxY <= mCullBounds[3]) {
+			return VISIBLE_FULL;
+		}
+		return VISIBLE_PARTIAL;
+	}
+
+	/**
+	 * Resolves shader handles and uploads static scene geometry if it has
+	 * been built already. Should be called once OpenGL context has been
+	 * (re)created and shader programs have been set. Cached layers and
+	 * antialiased bezier edges are blended with premultiplied alpha.
+	 */
+	public void init(boolean antialias) {
+		mAntialias = antialias;
+		// Blend function is set once, blending is switched through tracked
+		// state.
+		mGl.glBlendFunc(GLES20.GL_ONE, GLES20.GL_ONE_MINUS_SRC_ALPHA);
+
+		mBatchBezierPos = mShaderBatch.getHandle("aBezierPos");
+		mBatchColor = mShaderBatch.getHandle("aColor");
+		mBatchControlPts0 = mShaderBatch.getHandle("aControlPts0");
+		mBatchControlPts1 = mShaderBatch.getHandle("aControlPts1");
+		mBatchTime = mShaderBatch.getHandle("aTime");
+		mBatchAspectRatio = mShaderBatch.getHandle("uAspectRatio");
+		mBatchLayerTransforms = mShaderBatch.getHandle("uLayerTransforms");
+		mBatchLimitsT = mShaderBatch.getHandle("uLimitsT");
+		mBatchLimitsTime = mShaderBatch.getHandle("uLimitsTime");
+
+		mBezierBezierPos = mShaderBezier.getHandle("aBezierPos");
+		mBezierAspectRatio = mShaderBezier.getHandle("uAspectRatio");
+		mBezierColor = mShaderBezier.getHandle("uColor");
+		mBezierControlPts = mShaderBezier.getHandle("uControlPts");
+		mBezierLimitsT = mShaderBezier.getHandle("uLimitsT");
+		mBezierTransform = mShaderBezier.getHandle("uTransform");
+
+		mTexturePosition = mShaderTexture.getHandle("aPosition");
+
+		mKittyBatch.init();
+	}
+
+	/**
+	 * Renders commands of given frame into given FBO and returns number of
+	 * beziers drawn. Layer ranges drawn from layer cache are rendered into
+	 * cache first as that changes FBO binding. Layer cache covers whole
+	 * view, FBO drawing is culled to damaged area. Leaves given FBO bound.
+	 */
+	public int render(KittyFrame frame, KittyFbo fbo) {
+		mFrameBeziers = mFrameDraws = 0;
+		mCullBounds[0] = mCullBounds[1] = -1f;
+		mCullBounds[2] = mCullBounds[3] = 1f;
+		int commandCount = frame.getCommandCount();
+		for (int i = 0; i < commandCount; ++i) {
+			if (frame.getCommandType(i) == KittyFrame.CMD_CACHED) {
+				getLayerCache(frame.getArg0(i), frame.getArg1(i),
+						frame.getParam(i, 0) != 0f, fbo.getFormat());
+			}
+		}
+
+		fbo.bind();
+		fbo.bindTexture(0);
+		frame.getDamage().scissor(fbo.getWidth(), fbo.getHeight());
+		frame.getDamage().getScissorBounds(mCullBounds);
+
+		for (int i = 0; i < commandCount; ++i) {
+			int arg0 = frame.getArg0(i);
+			int arg1 = frame.getArg1(i);
+			switch (frame.getCommandType(i)) {
+			case KittyFrame.CMD_BATCH:
+				useBatch(0f, 1f, frame.getParam(i, 0), frame.getParam(i, 1));
+				renderBatch(arg0, arg1);
+				break;
+			case KittyFrame.CMD_BEZIER:
+				renderBezier(frame.getBeziers(), arg0 * 16, frame.getColors(),
+						arg0 * 3, frame.getParams(), i * 4,
+						frame.getSegmentCount(arg0));
+				break;
+			case KittyFrame.CMD_CACHED:
+				boolean opaque = frame.getParam(i, 0) != 0f;
+				KittyFbo cached = mKittyLayerCache.get(arg0, arg1);
+				if (cached != null) {
+					renderTexture(cached.getTexture(0), !opaque);
+					break;
+				}
+				if (opaque) {
+					mGl.glClearColor(COLOR_BG[0], COLOR_BG[1], COLOR_BG[2], 1f);
+					mGl.glClear(GLES20.GL_COLOR_BUFFER_BIT);
+				}
+				renderLayers(arg0, arg1, 0f, 1f, -KittyFrame.TIME_INFINITE,
+						KittyFrame.TIME_INFINITE);
+				break;
+			case KittyFrame.CMD_CLEAR:
+				mGl.glClearColor(COLOR_BG[0], COLOR_BG[1], COLOR_BG[2], 1f);
+				mGl.glClear(GLES20.GL_COLOR_BUFFER_BIT);
+				break;
+			case KittyFrame.CMD_LAYERS:
+				renderLayers(arg0, arg1, frame.getParam(i, 0),
+						frame.getParam(i, 1), frame.getParam(i, 2),
+						frame.getParam(i, 3));
+				break;
+			case KittyFrame.CMD_MOVE:
+				renderLayerMoved(arg0, frame.getParam(i, 0),
+						frame.getParam(i, 1));
+				break;
+			}
+		}
+		return mFrameBeziers;
+	}
+
+	/**
+	 * Draws beziers from index bezierStart to bezierEnd, exclusive, from
+	 * static scene geometry. Batch shader should be in use and bound to it.
+	 */
+	private void renderBatch(int bezierStart, int bezierEnd) {
+		if (bezierStart < bezierEnd) {
+			mFrameDraws += mKittyBatch.drawBeziers(bezierStart, bezierEnd,
+					mShaderBatch, mBatchLayerTransforms, mLayerTransforms);
+			mFrameBeziers += bezierEnd - bezierStart;
+		}
+	}
+
+	/**
+	 * Renders bezier onto current buffer. Bezier is given as 16 control point
+	 * coordinates starting from pointsIdx, top points first, and is
+	 * tessellated into given number of segments. Transform starting from
+	 * transformIdx is given as translate x, translate y and scale.
+	 */
+	private void renderBezier(float[] points, int pointsIdx, float[] color,
+			int colorIdx, float[] transform, int transformIdx,
+			int segmentCount) {
+
+		// Skip bezier if its control points are outside of cull bounds.
+		float minX = Float.MAX_VALUE, minY = Float.MAX_VALUE;
+		float maxX = -Float.MAX_VALUE, maxY = -Float.MAX_VALUE;
+		for (int i = pointsIdx; i < pointsIdx + 16; i += 2) {
+			minX = Math.min(minX, points[i]);
+			minY = Math.min(minY, points[i + 1]);
+			maxX = Math.max(maxX, points[i]);
+			maxY = Math.max(maxY, points[i + 1]);
+		}
+		mTempBounds[0] = minX;
+		mTempBounds[1] = minY;
+		mTempBounds[2] = maxX;
+		mTempBounds[3] = maxY;
+		if (getVisibility(mTempBounds, transform, transformIdx)
+				== VISIBLE_NONE) {
+			return;
+		}
+
+		mGlState.setBlend(mAntialias);
+		mGlState.useProgram(mShaderBezier);
+		mShaderBezier.setUniform2fv(mBezierAspectRatio, 1, mAspectRatio, 0);
+		mShaderBezier.setUniform2f(mBezierLimitsT, 0f, 1f);
+		mShaderBezier.setUniform2fv(mBezierControlPts, 8, points, pointsIdx);
+		mShaderBezier.setUniform3fv(mBezierColor, 1, color, colorIdx);
+		mShaderBezier.setUniform3fv(mBezierTransform, 1, transform,
+				transformIdx);
+
+		mGlState.setAttribPointer(mBezierBezierPos, 2, GLES20.GL_FLOAT,
+				mKittyTessellator.getStrip(segmentCount));
+
+		mGl.glDrawArrays(GLES20.GL_TRIANGLE_STRIP, 0,
+				2 * (segmentCount + 1));
+		++mFrameBeziers;
+		++mFrameDraws;
+	}
+
+	/**
+	 * Renders given layer moved by given offset using static scene geometry.
+	 */
+	private void renderLayerMoved(int layer, float offsetX, float offsetY) {
+		float translateX = mLayerTransforms[layer * 3 + 0];
+		float translateY = mLayerTransforms[layer * 3 + 1];
+		mLayerTransforms[layer * 3 + 0] = translateX + offsetX;
+		mLayerTransforms[layer * 3 + 1] = translateY + offsetY;
+		renderLayers(layer, layer + 1, 0f, 1f, -KittyFrame.TIME_INFINITE,
+				KittyFrame.TIME_INFINITE);
+		mLayerTransforms[layer * 3 + 0] = translateX;
+		mLayerTransforms[layer * 3 + 1] = translateY;
+	}
+
+	/**
+	 * Renders layers from index layerStart to layerEnd, exclusive, using
+	 * static scene geometry. tStart and tEnd are values between [0, 1] and
+	 * timeStart and timeEnd limit beziers to given time window. Layers and
+	 * beziers outside of cull bounds are skipped, visible beziers are drawn
+	 * in continuous runs.
+	 */
+	private void renderLayers(int layerStart, int layerEnd, float tStart,
+			float tEnd, float timeStart, float timeEnd) {
+		useBatch(tStart, tEnd, timeStart, timeEnd);
+
+		// Layers within cull bounds are drawn as a whole, beziers of layers
+		// crossing them are checked one by one.
+		int runStart = 0, runEnd = 0;
+		for (int i = layerStart; i < layerEnd; ++i) {
+			int bezierStart = mKittyScene.getLayerBezierStart(i);
+			int bezierEnd = mKittyScene.getLayerBezierEnd(i);
+			mKittyScene.getLayerBounds(i, mTempBounds);
+			int visibility = getVisibility(mTempBounds, mLayerTransforms,
+					i * 3);
+			if (visibility == VISIBLE_FULL) {
+				if (bezierStart != runEnd) {
+					renderBatch(runStart, runEnd);
+					runStart = bezierStart;
+				}
+				runEnd = bezierEnd;
+			} else if (visibility == VISIBLE_PARTIAL) {
+				for (int j = bezierStart; j < bezierEnd; ++j) {
+					mKittyScene.getBounds(j, j + 1, mTempBounds);
+					if (getVisibility(mTempBounds, mLayerTransforms, i * 3)
+							== VISIBLE_NONE) {
+						continue;
+					}
+					if (j != runEnd) {
+						renderBatch(runStart, runEnd);
+						runStart = j;
+					}
+					runEnd = j + 1;
+				}
+			}
+		}
+		renderBatch(runStart, runEnd);
+	}
+
+	/**
+	 * Renders given texture over whole current buffer. Texture is expected to
+	 * have premultiplied alpha if blending is requested.
+	 */
+	private void renderTexture(int texture, boolean blend) {
+		mGlState.setBlend(blend);
+		mGlState.useProgram(mShaderTexture);
+		mGlState.bindTexture(texture);
+		mGlState.setAttribPointer(mTexturePosition, 2, GLES20.GL_BYTE,
+				mBufferScreen);
+		mGl.glDrawArrays(GLES20.GL_TRIANGLE_STRIP, 0, 4);
+		++mFrameDraws;
+
+		mGlState.setBlend(false);
+	}
+
+	/**
+	 * Sets scene to render. Static scene geometry is built and uploaded if
+	 * view has been set with setView() already, otherwise once it is.
+	 */
+	public void setScene(KittyScene scene) {
+		mKittyScene = scene;
+		mLayerTransforms = new float[scene.getLayerCount() * 3];
+		KittyTransform transform = new KittyTransform();
+		for (int i = 0; i < scene.getLayerCount(); ++i) {
+			scene.getLayerTransform(i, transform);
+			mLayerTransforms[i * 3 + 0] = transform.getTranslateX();
+			mLayerTransforms[i * 3 + 1] = transform.getTranslateY();
+			mLayerTransforms[i * 3 + 2] = transform.getScaleX();
+		}
+		if (mPixelScale > 0f) {
+			mKittyBatch.build(scene, mPixelScale);
+			mKittyBatch.init();
+			mGlState.reset();
+		}
+	}
+
+	/**
+	 * Sets view aspect ratio and scale from view coordinates into pixels.
+	 * Static scene geometry is tessellated again if scale has changed.
+	 */
+	public void setView(float[] aspectRatio, float pixelScale) {
+		mAspectRatio[0] = aspectRatio[0];
+		mAspectRatio[1] = aspectRatio[1];
+		mPixelScale = pixelScale;
+		if (mKittyScene != null && pixelScale > 0f
+				&& mKittyBatch.getScale() != pixelScale) {
+			mKittyBatch.build(mKittyScene, pixelScale);
+			mKittyBatch.init();
+			mGlState.reset();
+		}
+	}
+
+	/**
+	 * Starts drawing static scene geometry, limited to t range and time
+	 * window given as in renderLayers(). Binds batch shader and vertex
+	 * buffer, redundant calls are filtered out by tracked state and uniform
+	 * values.
+	 */
+	private void useBatch(float tStart, float tEnd, float timeStart,
+			float timeEnd) {
+		mGlState.setBlend(mAntialias);
+		mGlState.useProgram(mShaderBatch);
+		mShaderBatch.setUniform2fv(mBatchAspectRatio, 1, mAspectRatio, 0);
+		mShaderBatch.setUniform2f(mBatchLimitsT, tStart, tEnd);
+		mShaderBatch.setUniform2f(mBatchLimitsTime, timeStart, timeEnd);
+
+		mKittyBatch.bind(mGlState, mBatchBezierPos, mBatchControlPts0,
+				mBatchControlPts1, mBatchColor, mBatchTime);
+	}
+
+}
@@ -0,0 +1,803 @@
+/*
+   Copyright 2012 Harri Smatt
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package fi.harism.wallpaper.hellokitty;
+
+import java.nio.Buffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import android.opengl.GLES20;
+
+/**
+ * Rendering backend recording issued commands. Commands are counted and
+ * optionally logged, then forwarded to delegate backend if one is given.
+ * Without delegate object names are generated, shaders always compile and
+ * active attributes and uniforms are parsed from shader sources, so that
+ * rendering code can run on a plain JVM. Only GLES20 constants are used
+ * from Android, which are inlined by compiler.
+ */
+public final class KittyGlRecorder implements KittyGl {
+
+	// Counter indices.
+	public static final int COUNT_CALLS = 0;
+	public static final int COUNT_DRAWS = 1;
+	public static final int COUNT_STATE_CHANGES = 2;
+	public static final int COUNT_UNIFORMS = 3;
+	public static final int COUNT_VERTICES = 4;
+	private static final int COUNT_SIZE = 5;
+
+	// Pattern for attribute and uniform declarations.
+	private static final Pattern PATTERN_DECLARATION = Pattern
+			.compile("(attribute|uniform)\\s+(?:(?:lowp|mediump|highp)\\s+)?"
+					+ "(\\w+)\\s+(\\w+)\\s*(?:\\[\\s*(\\d+)\\s*\\])?\\s*;");
+
+	// Recorded command names, null if commands aren't recorded.
+	private ArrayList<String> mCommands;
+	// Counters.
+	private final int[] mCounts = new int[COUNT_SIZE];
+	// Optional backend commands are forwarded to.
+	private final KittyGl mDelegate;
+	// Last generated object name.
+	private int mNameCounter;
+	// Generated programs and shader sources.
+	private final HashMap<Integer, Program> mPrograms = new HashMap<Integer, Program>();
+	private final HashMap<Integer, String> mShaderSources = new HashMap<Integer, String>();
+
+	/**
+	 * Default constructor, records commands without forwarding them.
+	 */
+	public KittyGlRecorder() {
+		this(null);
+	}
+
+	/**
+	 * Constructor for recording commands forwarded to given backend.
+	 */
+	public KittyGlRecorder(KittyGl delegate) {
+		mDelegate = delegate;
+	}
+
+	/**
+	 * Writes given active attribute or uniform into given arrays.
+	 */
+	private static void getActive(String activeName, int activeType,
+			int activeSize, int bufsize, int[] length, int lengthOffset,
+			int[] size, int sizeOffset, int[] type, int typeOffset,
+			byte[] name, int nameOffset) {
+		if (activeSize > 1) {
+			activeName += "[0]";
+		}
+		byte[] bytes = activeName.getBytes();
+		int len = Math.min(bytes.length, bufsize - 1);
+		System.arraycopy(bytes, 0, name, nameOffset, len);
+		name[nameOffset + len] = 0;
+		length[lengthOffset] = len;
+		size[sizeOffset] = activeSize;
+		type[typeOffset] = activeType;
+	}
+
+	/**
+	 * Returns recorded commands, or null if commands aren't recorded.
+	 */
+	public List<String> getCommands() {
+		return mCommands;
+	}
+
+	/**
+	 * Returns value of counter with given index.
+	 */
+	public int getCount(int counter) {
+		return mCounts[counter];
+	}
+
+	/**
+	 * Returns length of longest given name, including array suffix and
+	 * terminating null character.
+	 */
+	private static int getMaxLength(List<String> names) {
+		int maxLength = 0;
+		for (String name : names) {
+			maxLength = Math.max(maxLength, name.length() + 4);
+		}
+		return maxLength;
+	}
+
+	/**
+	 * Returns simulated program parameter.
+	 */
+	private static int getProgramParam(Program program, int pname) {
+		if (program == null) {
+			return 0;
+		}
+		switch (pname) {
+		case GLES20.GL_ACTIVE_ATTRIBUTES:
+			return program.mAttribNames.size();
+		case GLES20.GL_ACTIVE_ATTRIBUTE_MAX_LENGTH:
+			return getMaxLength(program.mAttribNames);
+		case GLES20.GL_ACTIVE_UNIFORMS:
+			return program.mUniformNames.size();
+		case GLES20.GL_ACTIVE_UNIFORM_MAX_LENGTH:
+			return getMaxLength(program.mUniformNames);
+		case GLES20.GL_LINK_STATUS:
+			return GLES20.GL_TRUE;
+		default:
+			return 0;
+		}
+	}
+
+	/**
+	 * Returns GL type for given GLSL type name.
+	 */
+	private static int getType(String typeName) {
+		if (typeName.equals("vec2")) {
+			return GLES20.GL_FLOAT_VEC2;
+		} else if (typeName.equals("vec3")) {
+			return GLES20.GL_FLOAT_VEC3;
+		} else if (typeName.equals("vec4")) {
+			return GLES20.GL_FLOAT_VEC4;
+		} else if (typeName.equals("mat2")) {
+			return GLES20.GL_FLOAT_MAT2;
+		} else if (typeName.equals("mat3")) {
+			return GLES20.GL_FLOAT_MAT3;
+		} else if (typeName.equals("mat4")) {
+			return GLES20.GL_FLOAT_MAT4;
+		} else if (typeName.equals("int")) {
+			return GLES20.GL_INT;
+		} else if (typeName.equals("sampler2D")) {
+			return GLES20.GL_SAMPLER_2D;
+		}
+		return GLES20.GL_FLOAT;
+	}
+
+	@Override
+	public void glActiveTexture(int texture) {
+		record("glActiveTexture", COUNT_STATE_CHANGES);
+		if (mDelegate != null) {
+			mDelegate.glActiveTexture(texture);
+		}
+	}
+
+	@Override
+	public void glAttachShader(int program, int shader) {
+		record("glAttachShader", -1);
+		if (mDelegate != null) {
+			mDelegate.glAttachShader(program, shader);
+		} else if (mPrograms.containsKey(program)) {
+			mPrograms.get(program).mShaders.add(shader);
+		}
+	}
+
+	@Override
+	public void glBindAttribLocation(int program, int index, String name) {
+		record("glBindAttribLocation", -1);
+		if (mDelegate != null) {
+			mDelegate.glBindAttribLocation(program, index, name);
+		} else if (mPrograms.containsKey(program)) {
+			mPrograms.get(program).mAttribBindings.put(name, index);
+		}
+	}
+
+	@Override
+	public void glBindBuffer(int target, int buffer) {
+		record("glBindBuffer", COUNT_STATE_CHANGES);
+		if (mDelegate != null) {
+			mDelegate.glBindBuffer(target, buffer);
+		}
+	}
+
+	@Override
+	public void glBindFramebuffer(int target, int framebuffer) {
+		record("glBindFramebuffer", COUNT_STATE_CHANGES);
+		if (mDelegate != null) {
+			mDelegate.glBindFramebuffer(target, framebuffer);
+		}
+	}
+
+	@Override
+	public void glBindRenderbuffer(int target, int renderbuffer) {
+		record("glBindRenderbuffer", COUNT_STATE_CHANGES);
+		if (mDelegate != null) {
+			mDelegate.glBindRenderbuffer(target, renderbuffer);
+		}
+	}
+
+	@Override
+	public void glBindTexture(int target, int texture) {
+		record("glBindTexture", COUNT_STATE_CHANGES);
+		if (mDelegate != null) {
+			mDelegate.glBindTexture(target, texture);
+		}
+	}
+
+	@Override
+	public void glBlendFunc(int sfactor, int dfactor) {
+		record("glBlendFunc", COUNT_STATE_CHANGES);
+		if (mDelegate != null) {
+			mDelegate.glBlendFunc(sfactor, dfactor);
+		}
+	}
+
+	@Override
+	public void glBufferData(int target, int size, Buffer data, int usage) {
+		record("glBufferData", -1);
+		if (mDelegate != null) {
+			mDelegate.glBufferData(target, size, data, usage);
+		}
+	}
+
+	@Override
+	public int glCheckFramebufferStatus(int target) {
+		record("glCheckFramebufferStatus", -1);
+		if (mDelegate != null) {
+			return mDelegate.glCheckFramebufferStatus(target);
+		}
+		return GLES20.GL_FRAMEBUFFER_COMPLETE;
+	}
+
+	@Override
+	public void glClear(int mask) {
+		record("glClear", -1);
+		if (mDelegate != null) {
+			mDelegate.glClear(mask);
+		}
+	}
+
+	@Override
+	public void glClearColor(float red, float green, float blue, float alpha) {
+		record("glClearColor", COUNT_STATE_CHANGES);
+		if (mDelegate != null) {
+			mDelegate.glClearColor(red, green, blue, alpha);
+		}
+	}
+
+	@Override
+	public void glCompileShader(int shader) {
+		record("glCompileShader", -1);
+		if (mDelegate != null) {
+			mDelegate.glCompileShader(shader);
+		}
+	}
+
+	@Override
+	public int glCreateProgram() {
+		record("glCreateProgram", -1);
+		if (mDelegate != null) {
+			return mDelegate.glCreateProgram();
+		}
+		int program = ++mNameCounter;
+		mPrograms.put(program, new Program());
+		return program;
+	}
+
+	@Override
+	public int glCreateShader(int type) {
+		record("glCreateShader", -1);
+		return mDelegate != null ? mDelegate.glCreateShader(type)
+				: ++mNameCounter;
+	}
+
+	@Override
+	public void glDeleteBuffers(int n, int[] buffers, int offset) {
+		record("glDeleteBuffers", -1);
+		if (mDelegate != null) {
+			mDelegate.glDeleteBuffers(n, buffers, offset);
+		}
+	}
+
+	@Override
+	public void glDeleteFramebuffers(int n, int[] framebuffers, int offset) {
+		record("glDeleteFramebuffers", -1);
+		if (mDelegate != null) {
+			mDelegate.glDeleteFramebuffers(n, framebuffers, offset);
+		}
+	}
+
+	@Override
+	public void glDeleteProgram(int program) {
+		record("glDeleteProgram", -1);
+		if (mDelegate != null) {
+			mDelegate.glDeleteProgram(program);
+		}
+	}
+
+	@Override
+	public void glDeleteRenderbuffers(int n, int[] renderbuffers, int offset) {
+		record("glDeleteRenderbuffers", -1);
+		if (mDelegate != null) {
+			mDelegate.glDeleteRenderbuffers(n, renderbuffers, offset);
+		}
+	}
+
+	@Override
+	public void glDeleteShader(int shader) {
+		record("glDeleteShader", -1);
+		if (mDelegate != null) {
+			mDelegate.glDeleteShader(shader);
+		}
+	}
+
+	@Override
+	public void glDeleteTextures(int n, int[] textures, int offset) {
+		record("glDeleteTextures", -1);
+		if (mDelegate != null) {
+			mDelegate.glDeleteTextures(n, textures, offset);
+		}
+	}
+
+	@Override
+	public void glDisable(int cap) {
+		record("glDisable", COUNT_STATE_CHANGES);
+		if (mDelegate != null) {
+			mDelegate.glDisable(cap);
+		}
+	}
+
+	@Override
+	public void glDisableVertexAttribArray(int index) {
+		record("glDisableVertexAttribArray", COUNT_STATE_CHANGES);
+		if (mDelegate != null) {
+			mDelegate.glDisableVertexAttribArray(index);
+		}
+	}
+
+	@Override
+	public void glDrawArrays(int mode, int first, int count) {
+		record("glDrawArrays", COUNT_DRAWS);
+		mCounts[COUNT_VERTICES] += count;
+		if (mDelegate != null) {
+			mDelegate.glDrawArrays(mode, first, count);
+		}
+	}
+
+	@Override
+	public void glEnable(int cap) {
+		record("glEnable", COUNT_STATE_CHANGES);
+		if (mDelegate != null) {
+			mDelegate.glEnable(cap);
+		}
+	}
+
+	@Override
+	public void glEnableVertexAttribArray(int index) {
+		record("glEnableVertexAttribArray", COUNT_STATE_CHANGES);
+		if (mDelegate != null) {
+			mDelegate.glEnableVertexAttribArray(index);
+		}
+	}
+
+	@Override
+	public void glFramebufferRenderbuffer(int target, int attachment,
+			int renderbuffertarget, int renderbuffer) {
+		record("glFramebufferRenderbuffer", -1);
+		if (mDelegate != null) {
+			mDelegate.glFramebufferRenderbuffer(target, attachment,
+					renderbuffertarget, renderbuffer);
+		}
+	}
+
+	@Override
+	public void glFramebufferTexture2D(int target, int attachment,
+			int textarget, int texture, int level) {
+		record("glFramebufferTexture2D", -1);
+		if (mDelegate != null) {
+			mDelegate.glFramebufferTexture2D(target, attachment, textarget,
+					texture, level);
+		}
+	}
+
+	@Override
+	public void glGenBuffers(int n, int[] buffers, int offset) {
+		record("glGenBuffers", -1);
+		if (mDelegate != null) {
+			mDelegate.glGenBuffers(n, buffers, offset);
+		} else {
+			for (int i = 0; i < n; ++i) {
+				buffers[offset + i] = ++mNameCounter;
+			}
+		}
+	}
+
+	@Override
+	public void glGenFramebuffers(int n, int[] framebuffers, int offset) {
+		record("glGenFramebuffers", -1);
+		if (mDelegate != null) {
+			mDelegate.glGenFramebuffers(n, framebuffers, offset);
+		} else {
+			for (int i = 0; i < n; ++i) {
+				framebuffers[offset + i] = ++mNameCounter;
+			}
+		}
+	}
+
+	@Override
+	public void glGenRenderbuffers(int n, int[] renderbuffers, int offset) {
+		record("glGenRenderbuffers", -1);
+		if (mDelegate != null) {
+			mDelegate.glGenRenderbuffers(n, renderbuffers, offset);
+		} else {
+			for (int i = 0; i < n; ++i) {
+				renderbuffers[offset + i] = ++mNameCounter;
+			}
+		}
+	}
+
+	@Override
+	public void glGenTextures(int n, int[] textures, int offset) {
+		record("glGenTextures", -1);
+		if (mDelegate != null) {
+			mDelegate.glGenTextures(n, textures, offset);
+		} else {
+			for (int i = 0; i < n; ++i) {
+				textures[offset + i] = ++mNameCounter;
+			}
+		}
+	}
+
+	@Override
+	public void glGetActiveAttrib(int program, int index, int bufsize,
+			int[] length, int lengthOffset, int[] size, int sizeOffset,
+			int[] type, int typeOffset, byte[] name, int nameOffset) {
+		record("glGetActiveAttrib", -1);
+		if (mDelegate != null) {
+			mDelegate.glGetActiveAttrib(program, index, bufsize, length,
+					lengthOffset, size, sizeOffset, type, typeOffset, name,
+					nameOffset);
+		} else {
+			Program p = mPrograms.get(program);
+			getActive(p.mAttribNames.get(index), p.mAttribTypes.get(index),
+					1, bufsize, length, lengthOffset, size, sizeOffset, type,
+					typeOffset, name, nameOffset);
+		}
+	}
+
+	@Override
+	public void glGetActiveUniform(int program, int index, int bufsize,
+			int[] length, int lengthOffset, int[] size, int sizeOffset,
+			int[] type, int typeOffset, byte[] name, int nameOffset) {
+		record("glGetActiveUniform", -1);
+		if (mDelegate != null) {
+			mDelegate.glGetActiveUniform(program, index, bufsize, length,
+					lengthOffset, size, sizeOffset, type, typeOffset, name,
+					nameOffset);
+		} else {
+			Program p = mPrograms.get(program);
+			getActive(p.mUniformNames.get(index), p.mUniformTypes.get(index),
+					p.mUniformSizes.get(index), bufsize, length, lengthOffset,
+					size, sizeOffset, type, typeOffset, name, nameOffset);
+		}
+	}
+
+	@Override
+	public int glGetAttribLocation(int program, String name) {
+		record("glGetAttribLocation", -1);
+		if (mDelegate != null) {
+			return mDelegate.glGetAttribLocation(program, name);
+		}
+		Program p = mPrograms.get(program);
+		if (p == null || !p.mAttribNames.contains(name)) {
+			return -1;
+		}
+		Integer location = p.mAttribBindings.get(name);
+		return location != null ? location : p.mAttribNames.indexOf(name);
+	}
+
+	@Override
+	public void glGetBooleanv(int pname, boolean[] params, int offset) {
+		record("glGetBooleanv", -1);
+		if (mDelegate != null) {
+			mDelegate.glGetBooleanv(pname, params, offset);
+		} else {
+			params[offset] = true;
+		}
+	}
+
+	@Override
+	public void glGetIntegerv(int pname, int[] params, int offset) {
+		record("glGetIntegerv", -1);
+		if (mDelegate != null) {
+			mDelegate.glGetIntegerv(pname, params, offset);
+		} else {
+			params[offset] = 8;
+		}
+	}
+
+	@Override
+	public void glGetProgramBinary(int program, int bufSize, int[] length,
+			int lengthOffset, int[] binaryFormat, int binaryFormatOffset,
+			Buffer binary) {
+		record("glGetProgramBinary", -1);
+		if (mDelegate != null) {
+			mDelegate.glGetProgramBinary(program, bufSize, length,
+					lengthOffset, binaryFormat, binaryFormatOffset, binary);
+		} else {
+			length[lengthOffset] = 0;
+		}
+	}
+
+	@Override
+	public String glGetProgramInfoLog(int program) {
+		record("glGetProgramInfoLog", -1);
+		return mDelegate != null ? mDelegate.glGetProgramInfoLog(program) : "";
+	}
+
+	@Override
+	public void glGetProgramiv(int program, int pname, int[] params,
+			int offset) {
+		record("glGetProgramiv", -1);
+		if (mDelegate != null) {
+			mDelegate.glGetProgramiv(program, pname, params, offset);
+		} else {
+			params[offset] = getProgramParam(mPrograms.get(program), pname);
+		}
+	}
+
+	@Override
+	public String glGetShaderInfoLog(int shader) {
+		record("glGetShaderInfoLog", -1);
+		return mDelegate != null ? mDelegate.glGetShaderInfoLog(shader) : "";
+	}
+
+	@Override
+	public void glGetShaderiv(int shader, int pname, int[] params, int offset) {
+		record("glGetShaderiv", -1);
+		if (mDelegate != null) {
+			mDelegate.glGetShaderiv(shader, pname, params, offset);
+		} else {
+			params[offset] = GLES20.GL_TRUE;
+		}
+	}
+
+	@Override
+	public String glGetString(int name) {
+		record("glGetString", -1);
+		if (mDelegate != null) {
+			return mDelegate.glGetString(name);
+		}
+		return name == GLES20.GL_VERSION ? "OpenGL ES 2.0" : "";
+	}
+
+	@Override
+	public int glGetUniformLocation(int program, String name) {
+		record("glGetUniformLocation", -1);
+		if (mDelegate != null) {
+			return mDelegate.glGetUniformLocation(program, name);
+		}
+		Program p = mPrograms.get(program);
+		return p == null ? -1 : p.mUniformNames.indexOf(name);
+	}
+
+	@Override
+	public void glLinkProgram(int program) {
+		record("glLinkProgram", -1);
+		if (mDelegate != null) {
+			mDelegate.glLinkProgram(program);
+		} else if (mPrograms.containsKey(program)) {
+			mPrograms.get(program).link(mShaderSources);
+		}
+	}
+
+	@Override
+	public void glProgramBinary(int program, int binaryFormat, Buffer binary,
+			int length) {
+		record("glProgramBinary", -1);
+		if (mDelegate != null) {
+			mDelegate.glProgramBinary(program, binaryFormat, binary, length);
+		}
+	}
+
+	@Override
+	public void glProgramParameteri(int program, int pname, int value) {
+		record("glProgramParameteri", -1);
+		if (mDelegate != null) {
+			mDelegate.glProgramParameteri(program, pname, value);
+		}
+	}
+
+	@Override
+	public void glRenderbufferStorage(int target, int internalformat, int width,
+			int height) {
+		record("glRenderbufferStorage", -1);
+		if (mDelegate != null) {
+			mDelegate.glRenderbufferStorage(target, internalformat, width,
+					height);
+		}
+	}
+
+	@Override
+	public void glScissor(int x, int y, int width, int height) {
+		record("glScissor", COUNT_STATE_CHANGES);
+		if (mDelegate != null) {
+			mDelegate.glScissor(x, y, width, height);
+		}
+	}
+
+	@Override
+	public void glShaderSource(int shader, String string) {
+		record("glShaderSource", -1);
+		if (mDelegate != null) {
+			mDelegate.glShaderSource(shader, string);
+		} else {
+			mShaderSources.put(shader, string);
+		}
+	}
+
+	@Override
+	public void glTexImage2D(int target, int level, int internalformat,
+			int width, int height, int border, int format, int type,
+			Buffer pixels) {
+		record("glTexImage2D", -1);
+		if (mDelegate != null) {
+			mDelegate.glTexImage2D(target, level, internalformat, width, height,
+					border, format, type, pixels);
+		}
+	}
+
+	@Override
+	public void glTexParameteri(int target, int pname, int param) {
+		record("glTexParameteri", -1);
+		if (mDelegate != null) {
+			mDelegate.glTexParameteri(target, pname, param);
+		}
+	}
+
+	@Override
+	public void glUniform2f(int location, float x, float y) {
+		record("glUniform2f", COUNT_UNIFORMS);
+		if (mDelegate != null) {
+			mDelegate.glUniform2f(location, x, y);
+		}
+	}
+
+	@Override
+	public void glUniform2fv(int location, int count, float[] v, int offset) {
+		record("glUniform2fv", COUNT_UNIFORMS);
+		if (mDelegate != null) {
+			mDelegate.glUniform2fv(location, count, v, offset);
+		}
+	}
+
+	@Override
+	public void glUniform3fv(int location, int count, float[] v, int offset) {
+		record("glUniform3fv", COUNT_UNIFORMS);
+		if (mDelegate != null) {
+			mDelegate.glUniform3fv(location, count, v, offset);
+		}
+	}
+
+	@Override
+	public void glUseProgram(int program) {
+		record("glUseProgram", COUNT_STATE_CHANGES);
+		if (mDelegate != null) {
+			mDelegate.glUseProgram(program);
+		}
+	}
+
+	@Override
+	public void glVertexAttribPointer(int index, int size, int type,
+			boolean normalized, int stride, Buffer ptr) {
+		record("glVertexAttribPointer", COUNT_STATE_CHANGES);
+		if (mDelegate != null) {
+			mDelegate.glVertexAttribPointer(index, size, type, normalized,
+					stride, ptr);
+		}
+	}
+
+	@Override
+	public void glVertexAttribPointer(int index, int size, int type,
+			boolean normalized, int stride, int offset) {
+		record("glVertexAttribPointer", COUNT_STATE_CHANGES);
+		if (mDelegate != null) {
+			mDelegate.glVertexAttribPointer(index, size, type, normalized,
+					stride, offset);
+		}
+	}
+
+	@Override
+	public void glViewport(int x, int y, int width, int height) {
+		record("glViewport", COUNT_STATE_CHANGES);
+		if (mDelegate != null) {
+			mDelegate.glViewport(x, y, width, height);
+		}
+	}
+
+	/**
+	 * Counts given command, and given counter if it's not negative, and adds
+	 * command into recorded commands.
+	 */
+	private void record(String command, int counter) {
+		++mCounts[COUNT_CALLS];
+		if (counter >= 0) {
+			++mCounts[counter];
+		}
+		if (mCommands != null) {
+			mCommands.add(command);
+		}
+	}
+
+	/**
+	 * Resets counters and recorded commands.
+	 */
+	public void reset() {
+		for (int i = 0; i < COUNT_SIZE; ++i) {
+			mCounts[i] = 0;
+		}
+		if (mCommands != null) {
+			mCommands.clear();
+		}
+	}
+
+	/**
+	 * Enables or disables recording command names.
+	 */
+	public void setRecordCommands(boolean recordCommands) {
+		mCommands = recordCommands ? new ArrayList<String>() : null;
+	}
+
+	/**
+	 * Simulated program with attributes and uniforms parsed from shader
+	 * sources.
+	 */
+	private static final class Program {
+
+		// Attribute locations bound before linking.
+		private final HashMap<String, Integer> mAttribBindings = new HashMap<String, Integer>();
+		// Active attributes.
+		private final ArrayList<String> mAttribNames = new ArrayList<String>();
+		private final ArrayList<Integer> mAttribTypes = new ArrayList<Integer>();
+		// Attached shaders.
+		private final ArrayList<Integer> mShaders = new ArrayList<Integer>();
+		// Active uniforms.
+		private final ArrayList<String> mUniformNames = new ArrayList<String>();
+		private final ArrayList<Integer> mUniformSizes = new ArrayList<Integer>();
+		private final ArrayList<Integer> mUniformTypes = new ArrayList<Integer>();
+
+		/**
+		 * Parses attribute and uniform declarations from attached shaders.
+		 */
+		public void link(HashMap<Integer, String> shaderSources) {
+			mAttribNames.clear();
+			mAttribTypes.clear();
+			mUniformNames.clear();
+			mUniformSizes.clear();
+			mUniformTypes.clear();
+			for (int shader : mShaders) {
+				String source = shaderSources.get(shader);
+				if (source == null) {
+					continue;
+				}
+				Matcher matcher = PATTERN_DECLARATION.matcher(source);
+				while (matcher.find()) {
+					int type = getType(matcher.group(2));
+					String name = matcher.group(3);
+					if (matcher.group(1).equals("attribute")) {
+						mAttribNames.add(name);
+						mAttribTypes.add(type);
+					} else if (!mUniformNames.contains(name)) {
+						String size = matcher.group(4);
+						mUniformNames.add(name);
+						mUniformSizes.add(size == null ? 1 : Integer
+								.parseInt(size));
+						mUniformTypes.add(type);
+					}
+				}
+			}
+		}
+	}
+
+}
@@ -0,0 +1,190 @@
+/*
+   Copyright 2012 Harri Smatt
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package fi.harism.wallpaper.hellokitty;
+
+import java.nio.Buffer;
+
+import android.opengl.GLES20;
+
+/**
+ * Helper class for tracking OpenGL state. Calls which wouldn't change
+ * current state are skipped. State is unknown after reset() and whenever
+ * state is changed bypassing this class, reset() should be called.
+ */
+public final class KittyGlState {
+
+	// Number of tracked vertex attributes, minimum supported by OpenGL ES 2.0.
+	// Shaders bind their attributes below it, see KittyShader.
+	static final int ATTRIB_COUNT = 8;
+
+	// Bound array buffer, -1 if unknown.
+	private int mArrayBuffer;
+	// Array buffers, offsets and strides set as vertex attribute pointers,
+	// buffer is -1 if unknown or pointer is into client side buffer.
+	private final int[] mAttribArrayBuffers = new int[ATTRIB_COUNT];
+	private final int[] mAttribOffsets = new int[ATTRIB_COUNT];
+	private final int[] mAttribStrides = new int[ATTRIB_COUNT];
+	// Client side buffers set as vertex attribute pointers.
+	private final Buffer[] mAttribBuffers = new Buffer[ATTRIB_COUNT];
+	// Enabled vertex attributes as bit mask.
+	private int mAttribsEnabled;
+	// True if enabled attribute mask is known.
+	private boolean mAttribsKnown;
+	// Blending state, -1 if unknown.
+	private int mBlend;
+	// Rendering backend.
+	private final KittyGl mGl;
+	// Program in use, -1 if unknown.
+	private int mProgram;
+	// Texture bound to unit 0, -1 if unknown.
+	private int mTexture;
+
+	/**
+	 * Constructor takes rendering backend.
+	 */
+	public KittyGlState(KittyGl gl) {
+		mGl = gl;
+		reset();
+	}
+
+	/**
+	 * Binds given buffer as array buffer.
+	 */
+	public void bindArrayBuffer(int buffer) {
+		if (mArrayBuffer != buffer) {
+			mGl.glBindBuffer(GLES20.GL_ARRAY_BUFFER, buffer);
+			mArrayBuffer = buffer;
+		}
+	}
+
+	/**
+	 * Binds given texture into texture unit 0.
+	 */
+	public void bindTexture(int texture) {
+		if (mTexture != texture) {
+			mGl.glActiveTexture(GLES20.GL_TEXTURE0);
+			mGl.glBindTexture(GLES20.GL_TEXTURE_2D, texture);
+			mTexture = texture;
+		}
+	}
+
+	/**
+	 * Enables vertex attributes with bit set in given mask and disables the
+	 * rest.
+	 */
+	public void enableAttribs(int mask) {
+		int changed = mAttribsKnown ? mAttribsEnabled ^ mask : -1;
+		for (int i = 0; changed != 0 && i < ATTRIB_COUNT; ++i) {
+			int bit = 1 << i;
+			if ((changed & bit) != 0) {
+				if ((mask & bit) != 0) {
+					mGl.glEnableVertexAttribArray(i);
+				} else {
+					mGl.glDisableVertexAttribArray(i);
+				}
+				changed &= ~bit;
+			}
+		}
+		mAttribsEnabled = mask;
+		mAttribsKnown = true;
+	}
+
+	/**
+	 * Resets tracked state to unknown.
+	 */
+	public void reset() {
+		mArrayBuffer = mBlend = mProgram = mTexture = -1;
+		mAttribsKnown = false;
+		for (int i = 0; i < ATTRIB_COUNT; ++i) {
+			mAttribArrayBuffers[i] = -1;
+			mAttribBuffers[i] = null;
+		}
+	}
+
+	/**
+	 * Sets vertex attribute pointer into given client side buffer. Unbinds
+	 * array buffer if needed. Pointer into same buffer as previously is
+	 * expected to have same layout and isn't set again.
+	 */
+	public void setAttribPointer(int handle, int size, int type,
+			Buffer buffer) {
+		if (handle < 0) {
+			return;
+		}
+		bindArrayBuffer(0);
+		if (handle >= ATTRIB_COUNT) {
+			mGl.glVertexAttribPointer(handle, size, type, false, 0, buffer);
+		} else if (mAttribBuffers[handle] != buffer) {
+			mGl.glVertexAttribPointer(handle, size, type, false, 0, buffer);
+			mAttribArrayBuffers[handle] = -1;
+			mAttribBuffers[handle] = buffer;
+		}
+	}
+
+	/**
+	 * Sets vertex attribute pointer into bound array buffer. Pointer into
+	 * same buffer, offset and stride as previously is expected to have same
+	 * layout and isn't set again.
+	 */
+	public void setAttribPointer(int handle, int size, int type, int stride,
+			int offset) {
+		if (handle < 0) {
+			return;
+		}
+		if (handle >= ATTRIB_COUNT) {
+			mGl.glVertexAttribPointer(handle, size, type, false, stride,
+					offset);
+		} else if (mArrayBuffer < 0
+				|| mAttribArrayBuffers[handle] != mArrayBuffer
+				|| mAttribOffsets[handle] != offset
+				|| mAttribStrides[handle] != stride) {
+			mGl.glVertexAttribPointer(handle, size, type, false, stride,
+					offset);
+			mAttribArrayBuffers[handle] = mArrayBuffer;
+			mAttribOffsets[handle] = offset;
+			mAttribStrides[handle] = stride;
+			mAttribBuffers[handle] = null;
+		}
+	}
+
+	/**
+	 * Enables or disables blending.
+	 */
+	public void setBlend(boolean blend) {
+		if (mBlend != (blend ? 1 : 0)) {
+			if (blend) {
+				mGl.glEnable(GLES20.GL_BLEND);
+			} else {
+				mGl.glDisable(GLES20.GL_BLEND);
+			}
+			mBlend = blend ? 1 : 0;
+		}
+	}
+
+	/**
+	 * Activates given shader program and enables its vertex attributes.
+	 */
+	public void useProgram(KittyShader shader) {
+		int program = shader.getProgram();
+		if (mProgram != program) {
+			mGl.glUseProgram(program);
+			mProgram = program;
+		}
+		enableAttribs(shader.getAttribMask());
+	}
+
+}
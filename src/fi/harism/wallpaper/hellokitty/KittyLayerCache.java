@@ -0,0 +1,153 @@
+/*
+   Copyright 2012 Harri Smatt
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package fi.harism.wallpaper.hellokitty;
+
+import java.util.Arrays;
+
+/**
+ * Cache for layer ranges rendered into textures. Entries are keyed by layer
+ * range and belong to current surface size, least recently used entries are
+ * released once total texture size would exceed given budget, or FBO pool
+ * budget. Textures are acquired from and released into FBO pool.
+ */
+public final class KittyLayerCache {
+
+	// Cache budget in bytes.
+	private final int mBudget;
+	// Number of cache entries.
+	private int mCount;
+	// Cached FBOs.
+	private KittyFbo[] mFbos = new KittyFbo[4];
+	// Pool textures are taken from.
+	private final KittyFboPool mKittyFboPool;
+	// Cached layer ranges, layer start and end per entry.
+	private int[] mLayers = new int[8];
+	// Usage counter for finding least recently used entry.
+	private long mUseCounter;
+	// Last usage for each entry.
+	private long[] mUses = new long[4];
+	// Texture size for all entries.
+	private int mWidth, mHeight;
+
+	/**
+	 * Constructor takes FBO pool and cache budget in bytes.
+	 */
+	public KittyLayerCache(KittyFboPool pool, int budget) {
+		mKittyFboPool = pool;
+		mBudget = budget;
+	}
+
+	/**
+	 * Returns FBO holding given layer range, or null if it is not cached.
+	 */
+	public KittyFbo get(int layerStart, int layerEnd) {
+		for (int i = 0; i < mCount; ++i) {
+			if (mLayers[i * 2] == layerStart
+					&& mLayers[i * 2 + 1] == layerEnd) {
+				mUses[i] = ++mUseCounter;
+				return mFbos[i];
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Returns size of cached textures in bytes.
+	 */
+	public int getSize() {
+		int size = 0;
+		for (int i = 0; i < mCount; ++i) {
+			size += mFbos[i].getSize();
+		}
+		return size;
+	}
+
+	/**
+	 * Resets cache and sets size for textures allocated from now on.
+	 */
+	public void init(int width, int height) {
+		reset();
+		mWidth = width;
+		mHeight = height;
+	}
+
+	/**
+	 * Allocates new FBO with given texture format, one of KittyFbo.FORMAT_*
+	 * values, for given layer range, releasing least recently used entries
+	 * if needed. Returned FBO has undefined content and caller is expected to
+	 * render layers into it. Returns null if a single texture doesn't fit
+	 * into cache budget or FBO pool budget.
+	 */
+	public KittyFbo put(int layerStart, int layerEnd, int format) {
+		int entrySize = mWidth * mHeight * KittyFbo.getBytesPerPixel(format);
+		if (entrySize > mBudget) {
+			return null;
+		}
+
+		// Release least recently used entries until new one fits in.
+		while (mCount > 0
+				&& (getSize() + entrySize > mBudget || mKittyFboPool
+						.getAvailable() < entrySize)) {
+			int oldest = 0;
+			for (int i = 1; i < mCount; ++i) {
+				if (mUses[i] < mUses[oldest]) {
+					oldest = i;
+				}
+			}
+			remove(oldest);
+		}
+		if (mKittyFboPool.getAvailable() < entrySize) {
+			return null;
+		}
+
+		if (mCount == mFbos.length) {
+			mFbos = Arrays.copyOf(mFbos, mCount * 2);
+			mLayers = Arrays.copyOf(mLayers, mCount * 4);
+			mUses = Arrays.copyOf(mUses, mCount * 2);
+		}
+		KittyFbo fbo = mKittyFboPool.acquire(mWidth, mHeight, format);
+		mFbos[mCount] = fbo;
+		mLayers[mCount * 2] = layerStart;
+		mLayers[mCount * 2 + 1] = layerEnd;
+		mUses[mCount] = ++mUseCounter;
+		++mCount;
+		return fbo;
+	}
+
+	/**
+	 * Releases entry at given index and moves last entry into its place.
+	 */
+	private void remove(int index) {
+		mKittyFboPool.release(mFbos[index]);
+		--mCount;
+		mFbos[index] = mFbos[mCount];
+		mLayers[index * 2] = mLayers[mCount * 2];
+		mLayers[index * 2 + 1] = mLayers[mCount * 2 + 1];
+		mUses[index] = mUses[mCount];
+		mFbos[mCount] = null;
+	}
+
+	/**
+	 * Releases all cached textures into FBO pool.
+	 */
+	public void reset() {
+		while (mCount > 0) {
+			remove(mCount - 1);
+		}
+	}
+
+}
@@ -0,0 +1,186 @@
+/*
+   Copyright 2012 Harri Smatt
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package fi.harism.wallpaper.hellokitty;
+
+/**
+ * Two stage frame pipeline. While rendering thread draws current frame, next
+ * one is prepared on a worker thread into second frame buffer. Frames are
+ * prepared on rendering thread instead if there is only one CPU core, or if
+ * no frame has been prepared in advance.
+ */
+public final class KittyPipeline implements Runnable {
+
+	// Animator preparing frames.
+	private final KittyAnimator mAnimator;
+	// Frame being drawn and frame being prepared or ready.
+	private KittyFrame mFrameCurrent, mFrameNext;
+	// True if next frame is waiting for worker thread.
+	private boolean mFramePending;
+	// True if next frame has been prepared.
+	private boolean mFrameReady;
+	// True while worker thread is preparing next frame.
+	private boolean mPreparing;
+	// Worker thread, null if not running.
+	private Thread mThread;
+	// Time next frame is prepared for.
+	private long mTimeNext;
+	// True if worker thread is used.
+	private final boolean mUseWorker;
+
+	/**
+	 * Constructor takes animator and rendering backend for frame damage.
+	 */
+	public KittyPipeline(KittyAnimator animator, KittyGl gl) {
+		mAnimator = animator;
+		mFrameCurrent = new KittyFrame(gl);
+		mFrameNext = new KittyFrame(gl);
+		mUseWorker = Runtime.getRuntime().availableProcessors() > 1;
+	}
+
+	/**
+	 * Returns frame to draw at given time. Frame prepared in advance is used
+	 * if there is one, otherwise frame is prepared for given time on calling
+	 * thread.
+	 */
+	public synchronized KittyFrame acquire(long time) {
+		waitIdle();
+		KittyFrame frame = mFrameNext;
+		mFrameNext = mFrameCurrent;
+		mFrameCurrent = frame;
+		if (mFrameReady) {
+			mFrameReady = false;
+		} else {
+			mAnimator.prepare(frame, time);
+		}
+		return frame;
+	}
+
+	/**
+	 * Prepares given frame for restoring content drawn so far, see
+	 * KittyAnimator.prepareRestore.
+	 */
+	public synchronized void prepareRestore(KittyFrame frame) {
+		waitIdle();
+		mAnimator.prepareRestore(frame);
+	}
+
+	/**
+	 * Starts preparing next frame for given time on worker thread. Should be
+	 * called once current frame has been drawn.
+	 */
+	public synchronized void prepareNext(long time) {
+		if (!mUseWorker) {
+			return;
+		}
+		if (mThread == null) {
+			mThread = new Thread(this, "KittyPipeline");
+			mThread.setDaemon(true);
+			mThread.start();
+		}
+		mTimeNext = time;
+		mFramePending = true;
+		notifyAll();
+	}
+
+	/**
+	 * Stops worker thread once it has finished preparing, it is restarted
+	 * when next frame is requested. Frame being prepared is kept.
+	 */
+	public synchronized void quit() {
+		mThread = null;
+		notifyAll();
+	}
+
+	/**
+	 * Drops frame prepared in advance, waiting for worker thread to finish
+	 * first. Animator can be modified safely after this call.
+	 */
+	public synchronized void reset() {
+		waitIdle();
+		mFrameReady = false;
+	}
+
+	/**
+	 * Resumes animation at given time from where it was paused, see
+	 * KittyAnimator.resume. Frame prepared in advance, if any, is still
+	 * drawn first.
+	 */
+	public synchronized void resume(long time) {
+		waitIdle();
+		mAnimator.resume(time);
+	}
+
+	@Override
+	public void run() {
+		Thread thread = Thread.currentThread();
+		for (;;) {
+			KittyFrame frame;
+			long time;
+			synchronized (this) {
+				while (mThread == thread && !mFramePending) {
+					try {
+						wait();
+					} catch (InterruptedException ex) {
+						mThread = null;
+					}
+				}
+				if (mThread != thread) {
+					return;
+				}
+				mFramePending = false;
+				mPreparing = true;
+				frame = mFrameNext;
+				time = mTimeNext;
+			}
+
+			// Lock isn't held while preparing so that rendering thread is
+			// blocked only if it needs the frame.
+			try {
+				mAnimator.prepare(frame, time);
+			} finally {
+				synchronized (this) {
+					mPreparing = false;
+					mFrameReady = true;
+					notifyAll();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Waits until pending frame has been prepared. Pending frame is prepared
+	 * on calling thread if worker thread has quit before starting it.
+	 */
+	private void waitIdle() {
+		if (mFramePending && mThread == null) {
+			mFramePending = false;
+			mAnimator.prepare(mFrameNext, mTimeNext);
+			mFrameReady = true;
+		}
+		boolean interrupted = false;
+		while (mFramePending || mPreparing) {
+			try {
+				wait();
+			} catch (InterruptedException ex) {
+				interrupted = true;
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+}
@@ -16,19 +16,19 @@
 
 package fi.harism.wallpaper.hellokitty;
 
-import java.io.ByteArrayOutputStream;
-import java.io.InputStream;
 import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
-import java.nio.FloatBuffer;
-import java.util.Vector;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import javax.microedition.khronos.egl.EGLConfig;
 import javax.microedition.khronos.opengles.GL10;
 
-import android.graphics.Matrix;
+import android.opengl.EGL14;
 import android.opengl.GLES20;
 import android.opengl.GLSurfaceView;
+import android.os.Build;
 import android.os.Handler;
 import android.os.Looper;
 import android.os.SystemClock;
@@ -37,220 +37,233 @@ import android.widget.Toast;
 /**
  * Renderer class.
  */
-public final class KittyRenderer implements GLSurfaceView.Renderer, Runnable {
-
-	// Bezier curve split count.
-	private static final int BEZIER_VERTEX_COUNT = 20;
-	// Background fill color.
-	private static final float[] COLOR_BG = { .2f, .5f, .8f };
-	// Render states.
-	private static final int STATE_BLINK_EYE_BOTH = 0;
-	private static final int STATE_BLINK_EYE_LEFT = 1;
-	private static final int STATE_BLINK_EYE_RIGHT = 2;
-	private static final int STATE_CLEAR = 3;
-	private static final int STATE_MOVE_BOW = 4;
-	private static final int STATE_MOVE_PAW_LEFT = 5;
-	private static final int STATE_MOVE_PAW_RIGHT = 6;
-	private static final int STATE_RENDERKITTY = 7;
+public final class KittyRenderer implements GLSurfaceView.Renderer {
+
+	// Whether bezier edges are antialiased if driver supports it.
+	private static final boolean ANTIALIAS = true;
+	// Memory budget for all FBO textures in bytes, released ones are kept
+	// for reuse within it.
+	static final int FBO_POOL_BUDGET = 64 * 1024 * 1024;
+	// Screen FBO size in bytes above which it uses RGB565 format.
+	private static final int FBO_SCREEN_BUDGET = 16 * 1024 * 1024;
+	// FBO resolution scales for incremental drawing and full redraw states,
+	// and lowest scale adaptive scaling may use when frames run late.
+	private static final float FBO_SCALE_INCREMENTAL = 1f;
+	private static final float FBO_SCALE_REDRAW = 1f;
+	private static final float FBO_SCALE_MIN = .5f;
+	// Memory budget for cached layer textures in bytes.
+	static final int LAYER_CACHE_BUDGET = 32 * 1024 * 1024;
+	// Executor loading scenes off main thread, its thread exits once idle.
+	private static final ExecutorService LOADER = new ThreadPoolExecutor(0,
+			1, 10, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
 
 	// View aspect ratio.
 	private final float mAspectRatio[] = new float[2];
-	// Vertex buffers.
-	private FloatBuffer mBufferBezier;
+	// Vertex buffer.
 	private ByteBuffer mBufferScreen;
-	// Clear layer.
-	private KittyLayer mClearLayer = new KittyLayer("clear", new Matrix());
 	private final Handler mDelayedHandler = new Handler(Looper.getMainLooper());
+	// True if EGL context has been created since last surface change.
+	private boolean mContextCreated;
+	// Animation, number of beziers drawn and draw calls issued during
+	// current frame.
+	private int mFrameAnimation, mFrameBeziers, mFrameDraws;
+	// Frame for restoring FBO content after EGL context loss.
+	private final KittyFrame mFrameRestore;
+	// Rendering backend and its tracked state.
+	private final KittyGl mGl;
+	private final KittyGlState mGlState;
 	// Owner surface view.
 	private GLSurfaceView mGLSurfaceView;
-	private final KittyFbo mKittyFbo = new KittyFbo();
-	private final KittySvg mKittySvg = new KittySvg();
+	private KittyAnimator mKittyAnimator;
+	// Animator for scene loaded on loader thread, null until loaded.
+	private volatile KittyAnimator mKittyAnimatorLoaded;
+	// Screen FBO, null until surface size is known.
+	private KittyFbo mKittyFbo;
+	// Preferred screen FBO format, opaque and matching window color depth.
+	private int mKittyFboFormat;
+	private final KittyFboPool mKittyFboPool;
+	private final KittyFboScaler mKittyFboScaler = new KittyFboScaler(
+			FBO_SCALE_INCREMENTAL, FBO_SCALE_REDRAW, FBO_SCALE_MIN);
+	private final KittyFrameRenderer mKittyFrameRenderer;
+	private final KittyLayerCache mKittyLayerCache;
+	private volatile KittyPipeline mKittyPipeline;
+	// Resources shared with other engines.
+	private final KittyResources mKittyResources;
+	private KittyScene mKittyScene;
+	private final KittyScheduler mKittyScheduler;
+	private final KittyStats mKittyStats = new KittyStats();
 	// Shader variables.
-	private final KittyShader mShaderBezier = new KittyShader();
+	private final KittyShader mShaderBatch;
+	private final KittyShader mShaderBezier;
 	private final boolean[] mShaderCompilerSupport = new boolean[1];
-	private final KittyShader mShaderCopy = new KittyShader();
-	private final Vector<Integer> mStateArray = new Vector<Integer>();
-	private final float[] mTempBezier = new float[16];
-	private final Matrix mTempMatrix = new Matrix();
-	private long mTimeStart, mTimeLast = -1;
-	// View width and height.
+	private final KittyShader mShaderCopy;
+	private final KittyShader mShaderTexture;
+	// Copy shader attribute handle.
+	private int mCopyPosition;
+	// Uptime renderer was created at.
+	private final long mTimeCreated = SystemClock.uptimeMillis();
+	// View width and height and scale from view coordinates into pixels.
 	private int mWidth, mHeight;
+	private float mPixelScale;
+	// Whether animation resumes after pause on next frame and whether FBO
+	// content needs to be restored first.
+	private boolean mResume, mRestore;
+	// Whether whole FBO should be copied to screen on next frame and whether
+	// screen content is preserved between frames.
+	private boolean mWindowCopyFull, mWindowPreserved;
 
 	/**
-	 * Default constructor.
+	 * Default constructor, renders using OpenGL ES 2.0.
 	 */
 	public KittyRenderer(GLSurfaceView glSurfaceView) {
+		this(glSurfaceView, new KittyGles20());
+	}
+
+	/**
+	 * Constructor for rendering using given backend.
+	 */
+	public KittyRenderer(GLSurfaceView glSurfaceView, KittyGl gl) {
 		mGLSurfaceView = glSurfaceView;
+		mKittyResources = KittyResources.acquire(glSurfaceView.getContext());
+		mKittyScheduler = new KittyScheduler(glSurfaceView);
+
+		mGl = gl;
+		mGlState = new KittyGlState(gl);
+		mKittyFboPool = new KittyFboPool(gl, FBO_POOL_BUDGET);
+		mFrameRestore = new KittyFrame(gl);
+		mKittyLayerCache = new KittyLayerCache(mKittyFboPool,
+				LAYER_CACHE_BUDGET);
+		mShaderBatch = new KittyShader(gl);
+		mShaderBezier = new KittyShader(gl);
+		mShaderCopy = new KittyShader(gl);
+		mShaderTexture = new KittyShader(gl);
+		mKittyFrameRenderer = new KittyFrameRenderer(gl, mGlState,
+				mKittyLayerCache, mShaderBatch, mShaderBezier, mShaderTexture);
 
 		// Screen sized coordinates.
 		final byte SCREEN_COORDS[] = { -1, 1, -1, -1, 1, 1, 1, -1 };
 		mBufferScreen = ByteBuffer.allocateDirect(2 * 4);
 		mBufferScreen.put(SCREEN_COORDS).position(0);
 
-		// Spline float buffer generation.
-		ByteBuffer buf = ByteBuffer.allocateDirect(4 * 4 * BEZIER_VERTEX_COUNT);
-		mBufferBezier = buf.order(ByteOrder.nativeOrder()).asFloatBuffer();
-		for (int i = 0; i < BEZIER_VERTEX_COUNT; ++i) {
-			float t = (float) i / (BEZIER_VERTEX_COUNT - 1);
-			mBufferBezier.put(t).put(-1);
-			mBufferBezier.put(t).put(1);
-		}
-		mBufferBezier.position(0);
-
-		// Initialize clear layer.
-		for (int i = 0; i < 5; ++i) {
-			KittyBezier bezier = new KittyBezier(COLOR_BG, 0, 0);
-			mClearLayer.mBeziers.add(bezier);
-		}
-
-		// Load kitty svg..
-		try {
-			InputStream is = mGLSurfaceView.getContext().getResources()
-					.openRawResource(R.raw.kitty_svg);
-			mKittySvg.read(is);
-		} catch (Exception ex) {
-			ex.printStackTrace();
-			showError(ex.getMessage());
-		}
+		// Load compiled kitty scene off main thread, overlapping with EGL
+		// context creation and shader compilation, unless another engine has
+		// loaded it already. Background color is shown until scene is ready.
+		LOADER.execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					mKittyAnimatorLoaded = new KittyAnimator(
+							mKittyResources.getScene(),
+							mKittyResources.getAnimation());
+					mKittyStats.setTimeSceneLoaded(SystemClock.uptimeMillis()
+							- mTimeCreated);
+					mGLSurfaceView.requestRender();
+				} catch (Exception ex) {
+					ex.printStackTrace();
+					showError(ex.getMessage());
+				}
+			}
+		});
 	}
 
 	/**
-	 * Generates new random state array list.
+	 * Returns frame statistics.
 	 */
-	public void genNewStateArray() {
-		// First render kitty.
-		mStateArray.add(STATE_RENDERKITTY);
-		// Add N random events.
-		for (int i = 0; i < 20; ++i) {
-			double rand = Math.random();
-			if (rand < 0.5) {
-				rand = Math.random();
-				if (rand < 0.4)
-					mStateArray.add(STATE_BLINK_EYE_LEFT);
-				else if (rand < 0.8)
-					mStateArray.add(STATE_BLINK_EYE_RIGHT);
-				else
-					mStateArray.add(STATE_BLINK_EYE_BOTH);
-			} else {
-				rand = Math.random();
-				if (rand < 0.333)
-					mStateArray.add(STATE_MOVE_PAW_LEFT);
-				else if (rand < 0.667)
-					mStateArray.add(STATE_MOVE_PAW_RIGHT);
-				else
-					mStateArray.add(STATE_MOVE_BOW);
-			}
-		}
-		// Finally clear kitty for redrawing.
-		mStateArray.add(STATE_CLEAR);
+	public KittyStats getStats() {
+		return mKittyStats;
 	}
 
 	/**
-	 * Loads String from raw resources with given id.
+	 * Acquires FBO and sets up layer cache scaled for given state. Returns
+	 * true if they were reallocated, which happens if forced or if size has
+	 * changed.
 	 */
-	private String loadRawString(int rawId) throws Exception {
-		InputStream is = mGLSurfaceView.getContext().getResources()
-				.openRawResource(rawId);
-		ByteArrayOutputStream baos = new ByteArrayOutputStream();
-		byte[] buf = new byte[1024];
-		int len;
-		while ((len = is.read(buf)) != -1) {
-			baos.write(buf, 0, len);
+	private boolean initFbo(int state, boolean force) {
+		float scale = mKittyFboScaler.getScale(state);
+		int width = Math.max(1, Math.round(mWidth * scale));
+		int height = Math.max(1, Math.round(mHeight * scale));
+		if (!force && mKittyFbo != null && width == mKittyFbo.getWidth()
+				&& height == mKittyFbo.getHeight()) {
+			return false;
 		}
-		return baos.toString();
-	}
-
-	@Override
-	public void onDrawFrame(GL10 unused) {
 
-		// If shader compiler is not supported.
-		if (mShaderCompilerSupport[0] == false) {
-			GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, 0);
-			GLES20.glViewport(0, 0, mWidth, mHeight);
-			GLES20.glClearColor(COLOR_BG[0], COLOR_BG[1], COLOR_BG[2], 1f);
-			GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT);
-			return;
+		// Cached layers and previous FBO are released into pool first so
+		// that their textures can be reused.
+		int format = mKittyFboFormat;
+		if (width * height * KittyFbo.getBytesPerPixel(format)
+				> FBO_SCREEN_BUDGET) {
+			format = KittyFbo.FORMAT_RGB565;
 		}
-
-		// Default settings.
-		GLES20.glDisable(GLES20.GL_BLEND);
-		GLES20.glDisable(GLES20.GL_DEPTH_TEST);
-		GLES20.glDisable(GLES20.GL_CULL_FACE);
-
-		// Render to FBO.
-		mKittyFbo.bind();
-		mKittyFbo.bindTexture(0);
-
-		boolean requestRender = false;
-		if (mStateArray.size() == 0) {
-			genNewStateArray();
-		}
-		switch (mStateArray.get(0)) {
-		case STATE_RENDERKITTY:
-			requestRender = renderKitty();
-			break;
-		case STATE_BLINK_EYE_LEFT:
-			requestRender = renderBlinkEye("eye_left_bg", "eye_left");
-			break;
-		case STATE_BLINK_EYE_RIGHT:
-			requestRender = renderBlinkEye("eye_right_bg", "eye_right");
-			break;
-		case STATE_BLINK_EYE_BOTH:
-			requestRender = renderBlinkEye("eye_left_bg", "eye_left",
-					"eye_right_bg", "eye_right");
-			break;
-		case STATE_MOVE_BOW:
-			requestRender = renderMoveLayer("bow");
-			break;
-		case STATE_MOVE_PAW_LEFT:
-			requestRender = renderMoveLayer("paw_left");
-			break;
-		case STATE_MOVE_PAW_RIGHT:
-			requestRender = renderMoveLayer("paw_right");
-			break;
-		case STATE_CLEAR:
-			requestRender = renderClear();
-			break;
-		}
-
-		// If request render, call for new render iteration.
-		if (requestRender) {
-			mGLSurfaceView.requestRender();
-		}
-		// Otherwise post delayed render request.
-		else {
-			mDelayedHandler.postDelayed(this, 5000);
+		mKittyLayerCache.init(width, height);
+		if (mKittyFbo != null) {
+			mKittyFboPool.release(mKittyFbo);
 		}
+		mKittyFbo = mKittyFboPool.acquire(width, height, format);
+		mGlState.reset();
+		return true;
+	}
 
-		// Bind screen buffer.
-		GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, 0);
-		GLES20.glViewport(0, 0, mWidth, mHeight);
-		// Copy FBO to screen.
-		mShaderCopy.useProgram();
-		int aPosition = mShaderCopy.getHandle("aPosition");
-		GLES20.glVertexAttribPointer(aPosition, 2, GLES20.GL_BYTE, false, 0,
-				mBufferScreen);
-		GLES20.glEnableVertexAttribArray(aPosition);
-		GLES20.glDrawArrays(GLES20.GL_TRIANGLE_STRIP, 0, 4);
+	@Override
+	public void onDrawFrame(GL10 unused) {
+		mKittyStats.frameStarted();
+		mFrameAnimation = -1;
+		mFrameBeziers = mFrameDraws = 0;
+		int state = renderFrame(mKittyScheduler.frameStarted());
+		mKittyStats.frameEnded(mFrameAnimation, mFrameBeziers, mFrameDraws,
+				mKittyScheduler.getMissedVsyncs());
+		mKittyFboScaler.frameEnded(state, mKittyScheduler.getMissedVsyncs());
 	}
 
 	@Override
 	public void onSurfaceChanged(GL10 unused, int width, int height) {
+		boolean sizeChanged = width != mWidth || height != mHeight;
 		mWidth = width;
 		mHeight = height;
 
 		mAspectRatio[0] = (float) Math.min(mWidth, mHeight) / mWidth;
 		mAspectRatio[1] = (float) Math.min(mWidth, mHeight) / mHeight;
+		mPixelScale = Math.min(mWidth, mHeight) / 2f;
 
-		mKittyFbo.init(mWidth, mHeight, 1);
-		mTimeStart = mTimeLast = -1;
-		mStateArray.clear();
+		// Tessellate static scene geometry for new view size.
+		mKittyFrameRenderer.setView(mAspectRatio, mPixelScale);
+
+		// FBO content survives pause if EGL context was preserved and view
+		// size hasn't changed.
+		if (sizeChanged || mContextCreated) {
+			initFbo(KittyStats.STATE_NONE, true);
+		}
+		mWindowPreserved = setWindowPreserved();
+		mWindowCopyFull = true;
+
+		// Restart animation program for new view, otherwise resume it where
+		// it was paused, restoring FBO content first if it was lost.
+		if (mKittyPipeline != null && sizeChanged) {
+			mKittyPipeline.reset();
+			mKittyAnimator.setView(mAspectRatio, mPixelScale);
+			mKittyAnimator.reset();
+		} else {
+			mResume = true;
+			mRestore = mContextCreated;
+		}
+		mContextCreated = false;
 	}
 
 	@Override
 	public void onSurfaceCreated(GL10 unused, EGLConfig config) {
+		mContextCreated = true;
+
+		// FBOs of previous context are gone. Screen FBO is opaque, RGB565 is
+		// enough if window has no more color depth than that.
+		mKittyLayerCache.reset();
+		mKittyFboPool.reset();
+		mKittyFbo = null;
+		int[] redBits = new int[1];
+		mGl.glGetIntegerv(GLES20.GL_RED_BITS, redBits, 0);
+		mKittyFboFormat = redBits[0] > 0 && redBits[0] <= 5
+				? KittyFbo.FORMAT_RGB565 : KittyFbo.FORMAT_RGB888;
+
 		// Check if shader compiler is supported.
-		GLES20.glGetBooleanv(GLES20.GL_SHADER_COMPILER, mShaderCompilerSupport,
+		mGl.glGetBooleanv(GLES20.GL_SHADER_COMPILER, mShaderCompilerSupport,
 				0);
 
 		// If not, show user an error message and return immediately.
@@ -261,219 +274,166 @@ public final class KittyRenderer implements GLSurfaceView.Renderer, Runnable {
 			return;
 		}
 
-		// Try to load shaders.
+		// Bezier edges are antialiased analytically in fragment shaders
+		// using screen space derivatives, edge fragments are blended with
+		// premultiplied alpha.
+		String extensions = mGl.glGetString(GLES20.GL_EXTENSIONS);
+		boolean antialias = ANTIALIAS && extensions != null
+				&& extensions.contains("GL_OES_standard_derivatives");
+		String defines = antialias ? "#define ANTIALIAS\n" : "";
+
+		// Try to load shaders, from program binaries cached on earlier runs
+		// if possible.
 		try {
+			KittyShaderCache cache = new KittyShaderCache(mGl, mGLSurfaceView
+					.getContext().getCacheDir());
 			String vertexSource, fragmentSource;
-			vertexSource = loadRawString(R.raw.copy_vs);
-			fragmentSource = loadRawString(R.raw.copy_fs);
-			mShaderCopy.setProgram(vertexSource, fragmentSource);
-			vertexSource = loadRawString(R.raw.bezier_vs);
-			fragmentSource = loadRawString(R.raw.bezier_fs);
-			mShaderBezier.setProgram(vertexSource, fragmentSource);
+			vertexSource = mKittyResources.getString(R.raw.copy_vs);
+			fragmentSource = mKittyResources.getString(R.raw.copy_fs);
+			mShaderCopy.setProgram(vertexSource, fragmentSource, cache,
+					KittyFrameRenderer.ATTRIBS_SCREEN);
+			fragmentSource = mKittyResources.getString(R.raw.texture_fs);
+			mShaderTexture.setProgram(vertexSource, fragmentSource, cache,
+					KittyFrameRenderer.ATTRIBS_SCREEN);
+			vertexSource = mKittyResources.getString(R.raw.bezier_vs);
+			fragmentSource = defines
+					+ mKittyResources.getString(R.raw.bezier_fs);
+			mShaderBezier.setProgram(vertexSource, fragmentSource, cache,
+					KittyFrameRenderer.ATTRIBS_BEZIER);
+			vertexSource = mKittyResources.getString(R.raw.batch_vs);
+			fragmentSource = defines
+					+ mKittyResources.getString(R.raw.batch_fs);
+			mShaderBatch.setProgram(vertexSource, fragmentSource, cache,
+					KittyFrameRenderer.ATTRIBS_BATCH);
+			mCopyPosition = mShaderCopy.getHandle("aPosition");
 		} catch (Exception ex) {
 			mShaderCompilerSupport[0] = false;
 			showError(ex.getMessage());
 		}
-	}
-
-	/**
-	 * Renders bezier onto current buffer. tStart and tEnd are values between
-	 * [0, 1].
-	 */
-	private void renderBezier(KittyBezier bezier, Matrix transform,
-			float tStart, float tEnd) {
 
-		for (int i = 0; i < 8; ++i) {
-			mTempBezier[i] = bezier.mPts0[i];
-			mTempBezier[i + 8] = bezier.mPts1[i];
-		}
-		transform.mapPoints(mTempBezier);
-
-		mShaderBezier.useProgram();
-		int uAspectRatio = mShaderBezier.getHandle("uAspectRatio");
-		int uLimitsT = mShaderBezier.getHandle("uLimitsT");
-		int uControlPts = mShaderBezier.getHandle("uControlPts");
-		int uColor = mShaderBezier.getHandle("uColor");
-		int aBezierPos = mShaderBezier.getHandle("aBezierPos");
-
-		GLES20.glUniform2fv(uAspectRatio, 1, mAspectRatio, 0);
-		GLES20.glUniform2f(uLimitsT, tStart, tEnd);
-		GLES20.glUniform2fv(uControlPts, 8, mTempBezier, 0);
-		GLES20.glUniform3fv(uColor, 1, bezier.mColor, 0);
-
-		GLES20.glVertexAttribPointer(aBezierPos, 2, GLES20.GL_FLOAT, false, 0,
-				mBufferBezier);
-		GLES20.glEnableVertexAttribArray(aBezierPos);
-
-		GLES20.glDrawArrays(GLES20.GL_TRIANGLE_STRIP, 0,
-				2 * BEZIER_VERTEX_COUNT);
+		// Upload static scene geometry if it has been built already.
+		mKittyFrameRenderer.init(antialias);
+		mGlState.reset();
 	}
 
 	/**
-	 * Handles eye blink animation.
+	 * Releases resources shared with other engines, should be called once
+	 * renderer is not used anymore.
 	 */
-	private boolean renderBlinkEye(String... layerIds) {
-		long timeCurrent = SystemClock.uptimeMillis();
-		if (mTimeLast < 0) {
-			mTimeStart = mTimeLast = timeCurrent;
-		}
-
-		long diffLast = mTimeLast - mTimeStart;
-		long diffCurrent = timeCurrent - mTimeStart;
-
-		float tStart = diffLast / 500f;
-		float tEnd = diffCurrent / 500f;
-
-		for (int i = 0; i < layerIds.length; ++i) {
-			KittyLayer layer = mKittySvg.getLayer(layerIds[i]);
-			for (KittyBezier bezier : layer.mBeziers) {
-				renderBezier(bezier, layer.mTransform, i % 2 == 0 ? tStart
-						: 2 - tEnd, i % 2 == 0 ? tEnd : 2 - tStart);
-			}
-		}
-
-		mTimeLast = timeCurrent;
-		return diffCurrent < 1000;
+	public void release() {
+		mKittyResources.release();
+		mKittyScheduler.release();
 	}
 
 	/**
-	 * Handles clearing current buffer.
+	 * Renders frame starting at given time. Returns state frame was rendered
+	 * in, one of KittyStats.STATE_* values.
 	 */
-	private boolean renderClear() {
-		long timeCurrent = SystemClock.uptimeMillis();
-		if (mTimeLast < 0) {
-			for (int i = 0; i < mClearLayer.mBeziers.size(); ++i) {
-				KittyBezier bezier = mClearLayer.mBeziers.get(i);
-
-				float x = (float) (Math.random() * 2 - 1);
-				float y = (float) (Math.random() * 2 - 1);
-				float dx = 4f / (mClearLayer.mBeziers.size() - i);
-				float dy = 3f / (mClearLayer.mBeziers.size() - i);
-
-				bezier.mPts0 = new float[] { x, y - dy, x - dx, y - dy, x - dx,
-						y + dy, x, y + dy };
-				bezier.mPts1 = new float[] { x, y - dy, x + dx, y - dy, x + dx,
-						y + dy, x, y + dy };
+	private int renderFrame(long timeCurrent) {
 
-			}
-			mTimeStart = mTimeLast = timeCurrent;
+		// Start using scene once it has been loaded.
+		if (mKittyScene == null && mKittyAnimatorLoaded != null) {
+			setScene(mKittyAnimatorLoaded);
 		}
 
-		long diffCurrent = timeCurrent - mTimeStart;
-		float scale = diffCurrent / 5000f;
-		scale *= scale * (3 - 2 * scale);
-
-		for (KittyBezier bezier : mClearLayer.mBeziers) {
-			float dx = bezier.mPts0[0];
-			float dy = bezier.mPts0[1] + 1;
-			mClearLayer.mTransform.setTranslate(-dx, -dy);
-			mClearLayer.mTransform.postScale(scale, scale);
-			mClearLayer.mTransform.postTranslate(dx, dy);
-			renderBezier(bezier, mClearLayer.mTransform, 0f, 1f);
+		// If shader compiler is not supported or scene isn't loaded.
+		if (mShaderCompilerSupport[0] == false || mKittyScene == null) {
+			mGl.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, 0);
+			mGl.glViewport(0, 0, mWidth, mHeight);
+			mGl.glClearColor(KittyFrameRenderer.COLOR_BG[0],
+					KittyFrameRenderer.COLOR_BG[1],
+					KittyFrameRenderer.COLOR_BG[2], 1f);
+			mGl.glClear(GLES20.GL_COLOR_BUFFER_BIT);
+			return KittyStats.STATE_NONE;
 		}
 
-		mTimeLast = timeCurrent;
-		if (diffCurrent >= 4000) {
-			mTimeLast = mTimeStart = -1;
-			mStateArray.clear();
+		// Default settings.
+		mGlState.setBlend(false);
+		mGl.glDisable(GLES20.GL_DEPTH_TEST);
+		mGl.glDisable(GLES20.GL_CULL_FACE);
+
+		// Draw frame prepared for current time into FBO, request frame for
+		// next change and start preparing it.
+		if (mResume) {
+			mKittyPipeline.resume(timeCurrent);
+			mResume = false;
 		}
-		return true;
-	}
-
-	/**
-	 * Handles procedural kitty rendering.
-	 */
-	private boolean renderKitty() {
-		long timeCurrent = SystemClock.uptimeMillis();
-		if (mTimeStart < 0) {
-			GLES20.glClearColor(COLOR_BG[0], COLOR_BG[1], COLOR_BG[2], 1f);
-			GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT);
-			mTimeStart = mTimeLast = timeCurrent;
+		KittyFrame frame = mKittyPipeline.acquire(timeCurrent);
+		KittyDamage damage = frame.getDamage();
+		mFrameAnimation = frame.getAnimation();
+
+		// FBO is rendered at scale depending on state and upscaled with
+		// linear filtering while copying, content is restored once it has
+		// been reallocated.
+		if (initFbo(frame.getState(), false)) {
+			mRestore = mWindowCopyFull = true;
 		}
-
-		boolean requestRender = false;
-		for (KittyLayer layer : mKittySvg.getLayers()) {
-			for (KittyBezier bezier : layer.mBeziers) {
-				long diffLast = mTimeLast - mTimeStart;
-				long diffCurrent = timeCurrent - mTimeStart;
-				long diffEnd = bezier.mTimeStart + bezier.mTimeDuration;
-
-				if (diffLast <= bezier.mTimeStart && diffCurrent >= diffEnd) {
-					renderBezier(bezier, layer.mTransform, 0f, 1f);
-				} else if ((diffLast >= bezier.mTimeStart && diffLast <= diffEnd)
-						|| (diffCurrent >= bezier.mTimeStart && diffCurrent <= diffEnd)) {
-					float tStart = (float) (diffLast - bezier.mTimeStart)
-							/ bezier.mTimeDuration;
-					float tEnd = (float) (diffCurrent - bezier.mTimeStart)
-							/ bezier.mTimeDuration;
-
-					renderBezier(bezier, layer.mTransform, tStart >= 0 ? tStart
-							: 0, tEnd <= 1 ? tEnd : 1);
-				}
-
-				if (diffEnd > diffCurrent) {
-					requestRender = true;
-				}
-			}
+		if (mRestore) {
+			mKittyPipeline.prepareRestore(mFrameRestore);
+			mFrameBeziers += mKittyFrameRenderer.render(mFrameRestore,
+					mKittyFbo);
+			mFrameDraws += mKittyFrameRenderer.getDrawCount();
+			damage.setFull();
+			mRestore = false;
+		}
+		mFrameBeziers += mKittyFrameRenderer.render(frame, mKittyFbo);
+		mFrameDraws += mKittyFrameRenderer.getDrawCount();
+		mKittyStats.setTimeFirstFrame(timeCurrent - mTimeCreated);
+		mGl.glDisable(GLES20.GL_SCISSOR_TEST);
+		long timeNext = mKittyScheduler.requestFrame(frame.getTimeNext(),
+				frame.getFrameRate());
+		mKittyPipeline.prepareNext(timeNext);
+
+		// Copy whole FBO unless screen content is preserved in which case
+		// copying damaged area is enough.
+		if (mWindowCopyFull || !mWindowPreserved) {
+			damage.setFull();
+			mWindowCopyFull = false;
+		} else if (damage.isEmpty()) {
+			return frame.getState();
 		}
 
-		mTimeLast = timeCurrent;
-		return requestRender;
+		// Bind screen buffer.
+		mGl.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, 0);
+		mGl.glViewport(0, 0, mWidth, mHeight);
+		damage.scissor(mWidth, mHeight);
+		// Copy FBO to screen.
+		mGlState.useProgram(mShaderCopy);
+		mGlState.bindTexture(mKittyFbo.getTexture(0));
+		mGlState.setAttribPointer(mCopyPosition, 2, GLES20.GL_BYTE,
+				mBufferScreen);
+		mGl.glDrawArrays(GLES20.GL_TRIANGLE_STRIP, 0, 4);
+		++mFrameDraws;
+		mGl.glDisable(GLES20.GL_SCISSOR_TEST);
+		return frame.getState();
 	}
 
 	/**
-	 * Renders layer movement animation.
+	 * Starts rendering scene of given animator. Should be called from
+	 * rendering thread once view size is known.
 	 */
-	private boolean renderMoveLayer(String layerId) {
-		long timeCurrent = SystemClock.uptimeMillis();
-		if (mTimeStart < 0) {
-			mTimeStart = timeCurrent;
-			mTimeLast = (long) (Math.random() * 1440 - 720);
-		}
-
-		long diffCurrent = timeCurrent - mTimeStart;
-		if (diffCurrent > 2880) {
-			diffCurrent = 2880;
-		}
-
-		float t = (float) Math.sin(diffCurrent * Math.PI / 2880);
-		t = t * t * t * (3 - 2 * t) * 0.08f;
-		float dx = (float) Math.sin((diffCurrent + mTimeLast) * Math.PI / 720);
-		float dy = (float) Math.cos((diffCurrent + mTimeLast) * Math.PI / 720);
-		if (mTimeLast < 0) {
-			float tmp = dx;
-			dx = dy;
-			dy = tmp;
-		}
-
-		KittyLayer layerMove = mKittySvg.getLayer(layerId);
-		mTempMatrix.set(layerMove.mTransform);
-		mTempMatrix.postTranslate(t * dx, t * dy);
-
-		GLES20.glClearColor(COLOR_BG[0], COLOR_BG[1], COLOR_BG[2], 1f);
-		GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT);
-
-		for (KittyLayer layer : mKittySvg.getLayers()) {
-			for (KittyBezier bezier : layer.mBeziers) {
-				if (layer == layerMove) {
-					renderBezier(bezier, mTempMatrix, 0, 1);
-				} else {
-					renderBezier(bezier, layer.mTransform, 0, 1);
-				}
-			}
-		}
-
-		return diffCurrent < 2880;
+	private void setScene(KittyAnimator animator) {
+		mKittyScene = animator.getScene();
+		mKittyAnimator = animator;
+		mKittyAnimator.setView(mAspectRatio, mPixelScale);
+		mKittyPipeline = new KittyPipeline(animator, mGl);
+
+		mKittyFrameRenderer.setScene(mKittyScene);
+		mKittyStats.setAnimations(mKittyScene, animator.getAnimation());
+		mWindowCopyFull = true;
 	}
 
-	@Override
-	public void run() {
-		mTimeLast = -1;
-		mTimeStart = -1;
-		if (mStateArray.size() > 0) {
-			mStateArray.remove(0);
+	/**
+	 * Asks current EGL surface to preserve its content after buffer swap.
+	 * Returns true if content is preserved.
+	 */
+	private boolean setWindowPreserved() {
+		if (Build.VERSION.SDK_INT < 17) {
+			return false;
 		}
-		mGLSurfaceView.requestRender();
+		return EGL14.eglSurfaceAttrib(EGL14.eglGetCurrentDisplay(),
+				EGL14.eglGetCurrentSurface(EGL14.EGL_DRAW),
+				EGL14.EGL_SWAP_BEHAVIOR, EGL14.EGL_BUFFER_PRESERVED);
 	}
 
 	/**
@@ -490,10 +450,13 @@ public final class KittyRenderer implements GLSurfaceView.Renderer, Runnable {
 	}
 
 	/**
-	 * Removes callbacks from Handler.
+	 * Cancels pending frame requests.
 	 */
 	public void stopHandler() {
-		mDelayedHandler.removeCallbacks(this);
+		mKittyScheduler.cancel();
+		if (mKittyPipeline != null) {
+			mKittyPipeline.quit();
+		}
 	}
 
 }
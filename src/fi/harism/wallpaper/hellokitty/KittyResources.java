@@ -0,0 +1,178 @@
+/*
+   Copyright 2012 Harri Smatt
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package fi.harism.wallpaper.hellokitty;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+
+import android.content.Context;
+import android.content.res.AssetFileDescriptor;
+import android.content.res.Resources;
+
+/**
+ * Process wide resources shared between wallpaper engines. Picker preview
+ * and home screen engine are often alive at the same time, both use the same
+ * scene, animation table and shader sources. These are immutable once loaded
+ * and dropped once last engine has released them. Mutable animation state is
+ * kept per engine in KittyAnimator.
+ */
+public final class KittyResources {
+
+	// Shared instance and number of references to it.
+	private static KittyResources sInstance;
+	private static int sReferences;
+
+	private final Context mContext;
+	// Animation table and scene, animation table is set before scene is
+	// published and scene is loaded while holding mSceneLock only.
+	private KittyAnimation mKittyAnimation;
+	private volatile KittyScene mKittyScene;
+	private final Object mSceneLock = new Object();
+	// Raw resource strings by resource id, guarded by map itself.
+	private final HashMap<Integer, String> mStrings =
+			new HashMap<Integer, String>();
+
+	/**
+	 * Private constructor, see acquire(Context).
+	 */
+	private KittyResources(Context context) {
+		mContext = context;
+	}
+
+	/**
+	 * Returns shared resources, creating them if there are no references to
+	 * them currently. Every call should be paired with a call to release().
+	 */
+	public static synchronized KittyResources acquire(Context context) {
+		if (sInstance == null) {
+			sInstance = new KittyResources(context.getApplicationContext());
+		}
+		++sReferences;
+		return sInstance;
+	}
+
+	/**
+	 * Returns animation table for scene, loading scene if needed.
+	 */
+	public KittyAnimation getAnimation() throws Exception {
+		getScene();
+		return mKittyAnimation;
+	}
+
+	/**
+	 * Returns kitty scene, loading it on first call. Scene is read-only and
+	 * can be used from several threads at the same time. Loading doesn't
+	 * block getString(int) callers.
+	 */
+	public KittyScene getScene() throws Exception {
+		KittyScene scene = mKittyScene;
+		if (scene == null) {
+			synchronized (mSceneLock) {
+				scene = mKittyScene;
+				if (scene == null) {
+					scene = KittyScene.read(loadRawBuffer(R.raw.kitty_scene));
+					mKittyAnimation = KittyAnimation.create(scene);
+					mKittyScene = scene;
+				}
+			}
+		}
+		return scene;
+	}
+
+	/**
+	 * Returns String from raw resources with given id, loading it on first
+	 * call.
+	 */
+	public String getString(int rawId) throws Exception {
+		synchronized (mStrings) {
+			String str = mStrings.get(rawId);
+			if (str == null) {
+				str = loadRawString(rawId);
+				mStrings.put(rawId, str);
+			}
+			return str;
+		}
+	}
+
+	/**
+	 * Loads raw resource with given id into a ByteBuffer. Uncompressed
+	 * resources are memory mapped, compressed ones are read into a direct
+	 * buffer instead.
+	 */
+	private ByteBuffer loadRawBuffer(int rawId) throws Exception {
+		Resources res = mContext.getResources();
+		try {
+			AssetFileDescriptor afd = res.openRawResourceFd(rawId);
+			try {
+				FileChannel channel = new FileInputStream(
+						afd.getFileDescriptor()).getChannel();
+				return channel.map(FileChannel.MapMode.READ_ONLY,
+						afd.getStartOffset(), afd.getLength());
+			} finally {
+				afd.close();
+			}
+		} catch (Resources.NotFoundException ex) {
+			// Resource is compressed and can't be mapped.
+		}
+
+		InputStream is = res.openRawResource(rawId);
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		byte[] buf = new byte[1024];
+		int len;
+		while ((len = is.read(buf)) != -1) {
+			baos.write(buf, 0, len);
+		}
+		is.close();
+		byte[] data = baos.toByteArray();
+		ByteBuffer buffer = ByteBuffer.allocateDirect(data.length);
+		buffer.put(data).position(0);
+		return buffer;
+	}
+
+	/**
+	 * Loads String from raw resources with given id.
+	 */
+	private String loadRawString(int rawId) throws Exception {
+		InputStream is = mContext.getResources().openRawResource(rawId);
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		byte[] buf = new byte[1024];
+		int len;
+		while ((len = is.read(buf)) != -1) {
+			baos.write(buf, 0, len);
+		}
+		is.close();
+		return baos.toString();
+	}
+
+	/**
+	 * Releases reference acquired with acquire(Context). Once there are no
+	 * references left shared resources are dropped, holders of this instance
+	 * may still use it but it won't be shared anymore.
+	 */
+	public void release() {
+		synchronized (KittyResources.class) {
+			if (sInstance == this && --sReferences == 0) {
+				sInstance = null;
+			}
+		}
+	}
+
+}
@@ -0,0 +1,428 @@
+/*
+   Copyright 2012 Harri Smatt
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package fi.harism.wallpaper.hellokitty;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
+import java.util.Arrays;
+
+/**
+ * Read-only scene storage. Bezier data is kept in flat primitive buffers
+ * indexed by bezier, layers own continuous bezier index ranges. Binary scene
+ * data produced by KittySceneCompiler is wrapped without allocating objects
+ * per bezier.
+ *
+ * File layout, all values little endian and 4 byte aligned:
+ *
+ * <pre>
+ * header    int magic, int version, int flags, int layerCount,
+ *           int bezierCount, float quantizeStep
+ * layers    layerCount * (int bezierStart, int bezierCount,
+ *           float translateX, float translateY, float scale,
+ *           int idLength, byte[idLength] id, padding)
+ * colors    bezierCount * int 0xRRGGBB
+ * times     bezierCount * (int start, int duration)
+ * points    bezierCount * 16 * float, or short if FLAG_QUANTIZED is set
+ * </pre>
+ *
+ * Each bezier has 8 top control point coordinates followed by 8 bottom
+ * control point coordinates, in layer space.
+ *
+ * Scene also carries a time index built at load time, beziers sorted by
+ * start time with running maximum of end times, for finding beziers drawn
+ * during a time window without visiting all of them, and bounding boxes of
+ * control points per bezier and per layer for culling.
+ */
+public final class KittyScene {
+
+	// Control points are stored as shorts multiplied by quantize step.
+	public static final int FLAG_QUANTIZED = 0x01;
+	// File identifier 'KTTY'.
+	public static final int MAGIC = 0x4B545459;
+	// Current file version.
+	public static final int VERSION = 1;
+
+	// Bezier bounds, min x, min y, max x, max y per bezier in layer space.
+	private final float[] mBezierBounds;
+	// Bezier colors.
+	private final IntBuffer mColors;
+	// Layer bounds, union of bounds of beziers on layer.
+	private final float[] mLayerBounds;
+	// Layer ids.
+	private final String[] mLayerIds;
+	// Layer bezier ranges, layer i owns beziers [offset i, offset i + 1).
+	private final int[] mLayerOffsets;
+	// Layer translate x, translate y and scale.
+	private final float[] mLayerTransforms;
+	// Bezier control points.
+	private final FloatBuffer mPoints;
+	// Beziers sorted by start time.
+	private final int[] mTimeBeziers;
+	// Latest end time of beziers up to each sorted position.
+	private final int[] mTimeEndsMax;
+	// Bezier start times and durations.
+	private final IntBuffer mTimes;
+
+	/**
+	 * Constructor for scene data already in memory, see read(ByteBuffer) for
+	 * reading binary scene data.
+	 */
+	KittyScene(String[] layerIds, int[] layerOffsets,
+			float[] layerTransforms, IntBuffer colors, IntBuffer times,
+			FloatBuffer points) {
+		mLayerIds = layerIds;
+		mLayerOffsets = layerOffsets;
+		mLayerTransforms = layerTransforms;
+		mColors = colors;
+		mTimes = times;
+		mPoints = points;
+
+		// Sort beziers by start time, bezier index in lower bits.
+		int bezierCount = colors.capacity();
+		long[] order = new long[bezierCount];
+		for (int i = 0; i < bezierCount; ++i) {
+			order[i] = ((long) times.get(i * 2) << 32) | i;
+		}
+		Arrays.sort(order);
+		mTimeBeziers = new int[bezierCount];
+		mTimeEndsMax = new int[bezierCount];
+		int timeEndMax = Integer.MIN_VALUE;
+		for (int i = 0; i < bezierCount; ++i) {
+			int bezier = (int) order[i];
+			timeEndMax = Math.max(timeEndMax, (int) getTimeEnd(bezier));
+			mTimeBeziers[i] = bezier;
+			mTimeEndsMax[i] = timeEndMax;
+		}
+
+		// Bezier curves always lie within their control points.
+		mBezierBounds = new float[bezierCount * 4];
+		for (int i = 0; i < bezierCount; ++i) {
+			float minX = Float.MAX_VALUE, minY = Float.MAX_VALUE;
+			float maxX = -Float.MAX_VALUE, maxY = -Float.MAX_VALUE;
+			for (int j = i * 16; j < i * 16 + 16; j += 2) {
+				float x = points.get(j);
+				float y = points.get(j + 1);
+				minX = Math.min(minX, x);
+				minY = Math.min(minY, y);
+				maxX = Math.max(maxX, x);
+				maxY = Math.max(maxY, y);
+			}
+			mBezierBounds[i * 4 + 0] = minX;
+			mBezierBounds[i * 4 + 1] = minY;
+			mBezierBounds[i * 4 + 2] = maxX;
+			mBezierBounds[i * 4 + 3] = maxY;
+		}
+		mLayerBounds = new float[layerIds.length * 4];
+		float[] bounds = new float[4];
+		for (int i = 0; i < layerIds.length; ++i) {
+			getBounds(layerOffsets[i], layerOffsets[i + 1], bounds);
+			System.arraycopy(bounds, 0, mLayerBounds, i * 4, 4);
+		}
+	}
+
+	/**
+	 * Returns total number of beziers.
+	 */
+	public int getBezierCount() {
+		return mColors.capacity();
+	}
+
+	/**
+	 * Stores bounding box of control points of beziers from bezierStart to
+	 * bezierEnd, exclusive, into given array as min x, min y, max x, max y in
+	 * layer space. Bezier curves always lie within their control points.
+	 * Empty range has min values greater than max values.
+	 */
+	public void getBounds(int bezierStart, int bezierEnd, float[] dst) {
+		float minX = Float.MAX_VALUE, minY = Float.MAX_VALUE;
+		float maxX = -Float.MAX_VALUE, maxY = -Float.MAX_VALUE;
+		float[] bounds = mBezierBounds;
+		for (int i = bezierStart * 4; i < bezierEnd * 4; i += 4) {
+			minX = Math.min(minX, bounds[i + 0]);
+			minY = Math.min(minY, bounds[i + 1]);
+			maxX = Math.max(maxX, bounds[i + 2]);
+			maxY = Math.max(maxY, bounds[i + 3]);
+		}
+		dst[0] = minX;
+		dst[1] = minY;
+		dst[2] = maxX;
+		dst[3] = maxY;
+	}
+
+	/**
+	 * Returns index of layer given bezier is on.
+	 */
+	public int getBezierLayer(int bezier) {
+		// Last layer starting at or before bezier, empty layers sharing
+		// start offset with it come before it.
+		int low = 0, high = mLayerIds.length - 1;
+		while (low < high) {
+			int mid = (low + high + 1) >>> 1;
+			if (mLayerOffsets[mid] <= bezier) {
+				low = mid;
+			} else {
+				high = mid - 1;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * Returns bezier color as 0xRRGGBB.
+	 */
+	public int getColor(int bezier) {
+		return mColors.get(bezier);
+	}
+
+	/**
+	 * Stores bezier color as rgb values between [0, 1] into given array.
+	 */
+	public void getColor(int bezier, float[] dst, int dstIdx) {
+		int color = mColors.get(bezier);
+		dst[dstIdx + 0] = ((color >> 16) & 0xFF) / 255f;
+		dst[dstIdx + 1] = ((color >> 8) & 0xFF) / 255f;
+		dst[dstIdx + 2] = (color & 0xFF) / 255f;
+	}
+
+	/**
+	 * Returns index after last bezier on given layer.
+	 */
+	public int getLayerBezierEnd(int layer) {
+		return mLayerOffsets[layer + 1];
+	}
+
+	/**
+	 * Stores bounding box of beziers on given layer into given array as min
+	 * x, min y, max x, max y in layer space.
+	 */
+	public void getLayerBounds(int layer, float[] dst) {
+		System.arraycopy(mLayerBounds, layer * 4, dst, 0, 4);
+	}
+
+	/**
+	 * Returns index of first bezier on given layer.
+	 */
+	public int getLayerBezierStart(int layer) {
+		return mLayerOffsets[layer];
+	}
+
+	/**
+	 * Returns number of layers.
+	 */
+	public int getLayerCount() {
+		return mLayerIds.length;
+	}
+
+	/**
+	 * Returns id of given layer.
+	 */
+	public String getLayerId(int layer) {
+		return mLayerIds[layer];
+	}
+
+	/**
+	 * Returns index of layer with given id, or -1 if not found.
+	 */
+	public int getLayerIndex(String id) {
+		for (int i = 0; i < mLayerIds.length; ++i) {
+			if (mLayerIds[i].equals(id)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Returns layer scale. Layer space points are translated first and scaled
+	 * afterwards.
+	 */
+	public float getLayerScale(int layer) {
+		return mLayerTransforms[layer * 3 + 2];
+	}
+
+	/**
+	 * Stores layer transform, from layer space into scene space, into given
+	 * transform.
+	 */
+	public void getLayerTransform(int layer, KittyTransform dst) {
+		dst.setTranslate(mLayerTransforms[layer * 3 + 0],
+				mLayerTransforms[layer * 3 + 1]);
+		dst.scale(mLayerTransforms[layer * 3 + 2],
+				mLayerTransforms[layer * 3 + 2]);
+	}
+
+	/**
+	 * Returns layer translate x.
+	 */
+	public float getLayerTranslateX(int layer) {
+		return mLayerTransforms[layer * 3 + 0];
+	}
+
+	/**
+	 * Returns layer translate y.
+	 */
+	public float getLayerTranslateY(int layer) {
+		return mLayerTransforms[layer * 3 + 1];
+	}
+
+	/**
+	 * Copies 16 control point coordinates of given bezier into given array,
+	 * top control points first.
+	 */
+	public void getPoints(int bezier, float[] dst, int dstIdx) {
+		for (int i = 0; i < 16; ++i) {
+			dst[dstIdx + i] = mPoints.get(bezier * 16 + i);
+		}
+	}
+
+	/**
+	 * Returns bezier draw duration.
+	 */
+	public long getTimeDuration(int bezier) {
+		return mTimes.get(bezier * 2 + 1);
+	}
+
+	/**
+	 * Returns time bezier has been drawn at, start time plus duration of at
+	 * least one.
+	 */
+	public long getTimeEnd(int bezier) {
+		return getTimeStart(bezier) + Math.max(getTimeDuration(bezier), 1);
+	}
+
+	/**
+	 * Returns time all beziers have been drawn at, 0 if there are none.
+	 */
+	public long getTimeEnd() {
+		int count = mTimeEndsMax.length;
+		return count == 0 ? 0 : mTimeEndsMax[count - 1];
+	}
+
+	/**
+	 * Returns bezier at given position in start time order.
+	 */
+	public int getTimeIndexBezier(int index) {
+		return mTimeBeziers[index];
+	}
+
+	/**
+	 * Returns position in start time order after last bezier starting at or
+	 * before given time.
+	 */
+	public int getTimeIndexEnd(long time) {
+		int low = 0, high = mTimeBeziers.length;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (getTimeStart(mTimeBeziers[mid]) <= time) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * Returns first position in start time order from which on beziers may
+	 * end at or after given time. Beziers before it have all ended earlier.
+	 */
+	public int getTimeIndexStart(long time) {
+		int low = 0, high = mTimeEndsMax.length;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (mTimeEndsMax[mid] < time) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * Returns bezier draw start time.
+	 */
+	public long getTimeStart(int bezier) {
+		return mTimes.get(bezier * 2);
+	}
+
+	/**
+	 * Wraps given scene data into a new KittyScene. Data is not copied, unless
+	 * control points have been quantized, and given buffer should not be
+	 * modified afterwards.
+	 */
+	public static KittyScene read(ByteBuffer buf) throws Exception {
+		buf.order(ByteOrder.LITTLE_ENDIAN);
+		if (buf.getInt() != MAGIC) {
+			throw new Exception("Invalid scene data.");
+		}
+		if (buf.getInt() != VERSION) {
+			throw new Exception("Unsupported scene version.");
+		}
+		int flags = buf.getInt();
+		int layerCount = buf.getInt();
+		int bezierCount = buf.getInt();
+		float quantizeStep = buf.getFloat();
+
+		String[] layerIds = new String[layerCount];
+		int[] layerOffsets = new int[layerCount + 1];
+		float[] layerTransforms = new float[layerCount * 3];
+		for (int i = 0; i < layerCount; ++i) {
+			layerOffsets[i] = buf.getInt();
+			layerOffsets[i + 1] = layerOffsets[i] + buf.getInt();
+			layerTransforms[i * 3 + 0] = buf.getFloat();
+			layerTransforms[i * 3 + 1] = buf.getFloat();
+			layerTransforms[i * 3 + 2] = buf.getFloat();
+			byte[] id = new byte[buf.getInt()];
+			buf.get(id);
+			buf.position((buf.position() + 3) & ~3);
+			layerIds[i] = new String(id, "UTF-8");
+		}
+
+		IntBuffer colors = slice(buf, bezierCount * 4).asIntBuffer();
+		IntBuffer times = slice(buf, bezierCount * 8).asIntBuffer();
+		FloatBuffer points;
+		if ((flags & FLAG_QUANTIZED) != 0) {
+			ShortBuffer quantized = slice(buf, bezierCount * 32)
+					.asShortBuffer();
+			points = FloatBuffer.allocate(bezierCount * 16);
+			for (int i = 0; i < bezierCount * 16; ++i) {
+				points.put(i, quantized.get(i) * quantizeStep);
+			}
+		} else {
+			points = slice(buf, bezierCount * 64).asFloatBuffer();
+		}
+
+		return new KittyScene(layerIds, layerOffsets, layerTransforms,
+				colors, times, points);
+	}
+
+	/**
+	 * Returns a little endian view of next byteCount bytes and advances
+	 * buffer position past them.
+	 */
+	private static ByteBuffer slice(ByteBuffer buf, int byteCount) {
+		ByteBuffer slice = buf.slice().order(ByteOrder.LITTLE_ENDIAN);
+		slice.limit(byteCount);
+		buf.position(buf.position() + byteCount);
+		return slice;
+	}
+
+}
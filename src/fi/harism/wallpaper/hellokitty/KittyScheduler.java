@@ -0,0 +1,242 @@
+/*
+   Copyright 2012 Harri Smatt
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package fi.harism.wallpaper.hellokitty;
+
+import android.opengl.GLSurfaceView;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.SystemClock;
+import android.view.Choreographer;
+
+/**
+ * Frame scheduler for render-when-dirty surface view. Frames wanted on next
+ * vsync are requested directly from rendering thread, later frames are
+ * requested from scheduler's own thread using Choreographer frame callbacks,
+ * or Handler prior to API 16, so that waiting for them never wakes main
+ * thread. Only one delayed request is pending at a time and earlier requests
+ * replace later ones.
+ */
+public final class KittyScheduler implements Runnable {
+
+	// Display refresh period in milliseconds.
+	private static final float VSYNC_PERIOD = 1000f / 60;
+
+	// Frame callback used on API 16+.
+	private final FrameCallback mFrameCallback;
+	// Handler on scheduler thread, used for delayed requests prior to API 16.
+	private final Handler mHandler;
+	// Owner surface view.
+	private final GLSurfaceView mGLSurfaceView;
+	// Vsyncs missed before current frame started.
+	private int mMissedVsyncs;
+	// Thread delayed requests are waited on.
+	private final HandlerThread mThread;
+	// Start time of current frame.
+	private long mTimeFrame;
+	// Time of pending frame request, -1 if there is none.
+	private long mTimePending = -1;
+	// Earliest time frame was requested for during current frame, -1 if
+	// there is none.
+	private long mTimeRequested = -1;
+	// Time of vsync delayed request was delivered on, -1 if frame wasn't
+	// requested by frame callback.
+	private long mTimeVsync = -1;
+
+	/**
+	 * Constructor starts scheduler thread, release() should be called once
+	 * scheduler isn't needed anymore.
+	 */
+	public KittyScheduler(GLSurfaceView glSurfaceView) {
+		mGLSurfaceView = glSurfaceView;
+		mThread = new HandlerThread("KittyScheduler");
+		mThread.start();
+		mHandler = new Handler(mThread.getLooper());
+		if (Build.VERSION.SDK_INT >= 16) {
+			mFrameCallback = new FrameCallback();
+		} else {
+			mFrameCallback = null;
+		}
+	}
+
+	/**
+	 * Cancels pending frame request. Next frame isn't expected at any given
+	 * time and counts as on time.
+	 */
+	public synchronized void cancel() {
+		removeRequest();
+		mTimeRequested = -1;
+	}
+
+	/**
+	 * Marks start of new frame. Should be called from rendering thread at the
+	 * beginning of every frame. Returns frame start time.
+	 */
+	public long frameStarted() {
+		mTimeFrame = SystemClock.uptimeMillis();
+		synchronized (this) {
+			// Frames requested by frame callback are late by vsyncs passed
+			// before callback was run, others start on buffer swap and are
+			// measured from their start time. Choreographer frame times and
+			// uptime are both based on monotonic clock.
+			mMissedVsyncs = 0;
+			if (mTimeRequested >= 0) {
+				long time = mTimeVsync >= 0 ? mTimeVsync : mTimeFrame;
+				long late = Math.max(time - mTimeRequested, 0);
+				mMissedVsyncs = (int) (late / VSYNC_PERIOD);
+				mTimeRequested = -1;
+			}
+			mTimeVsync = -1;
+		}
+		return mTimeFrame;
+	}
+
+	/**
+	 * Returns number of vsyncs current frame started later than requested.
+	 * Frames starting within one vsync period of requested time are on time.
+	 */
+	public int getMissedVsyncs() {
+		return mMissedVsyncs;
+	}
+
+	/**
+	 * Requests frame once given uptime is reached, limited to given frame
+	 * rate counted from current frame start. Frame rate 0 means display rate.
+	 * Returns expected start time of requested frame, no earlier than next
+	 * vsync.
+	 */
+	public long requestFrame(long time, float frameRate) {
+		if (frameRate > 0) {
+			time = Math.max(time, mTimeFrame + (long) (1000 / frameRate));
+		}
+		long timeRequest = SystemClock.uptimeMillis();
+		long delay = time - timeRequest;
+		timeRequest = Math.max(time, timeRequest);
+
+		synchronized (this) {
+			if (mTimeRequested < 0 || timeRequest < mTimeRequested) {
+				mTimeRequested = timeRequest;
+			}
+			if (mTimePending >= 0 && mTimePending <= time) {
+				return mTimePending;
+			}
+			if (delay <= 0) {
+				removeRequest();
+				mGLSurfaceView.requestRender();
+				return Math.max(time, mTimeFrame + (long) VSYNC_PERIOD);
+			}
+			removeRequest();
+			mTimePending = time;
+			if (mFrameCallback != null) {
+				mFrameCallback.post(delay);
+			} else {
+				mHandler.postDelayed(this, delay);
+			}
+			return time;
+		}
+	}
+
+	/**
+	 * Cancels pending frame request and stops scheduler thread. Frames can't
+	 * be requested for later time afterwards.
+	 */
+	public synchronized void release() {
+		removeRequest();
+		mThread.quit();
+	}
+
+	/**
+	 * Removes pending frame request. Should be called while synchronized.
+	 */
+	private void removeRequest() {
+		if (mFrameCallback != null) {
+			mFrameCallback.remove();
+		} else {
+			mHandler.removeCallbacks(this);
+		}
+		mTimePending = -1;
+	}
+
+	@Override
+	public void run() {
+		synchronized (this) {
+			mTimePending = -1;
+		}
+		mGLSurfaceView.requestRender();
+	}
+
+	/**
+	 * Choreographer callback in its own class so that it's loaded on API 16+
+	 * only.
+	 */
+	private final class FrameCallback implements Choreographer.FrameCallback,
+			Runnable {
+
+		// Scheduler thread Choreographer, null until it has been created.
+		private Choreographer mChoreographer;
+
+		/**
+		 * Constructor creates Choreographer on scheduler thread and waits for
+		 * it, Choreographer is bound to looper of thread creating it.
+		 */
+		public FrameCallback() {
+			mHandler.post(this);
+			boolean interrupted = false;
+			synchronized (this) {
+				while (mChoreographer == null) {
+					try {
+						wait();
+					} catch (InterruptedException ex) {
+						interrupted = true;
+					}
+				}
+			}
+			if (interrupted) {
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		@Override
+		public void doFrame(long frameTimeNanos) {
+			synchronized (KittyScheduler.this) {
+				mTimeVsync = frameTimeNanos / 1000000;
+			}
+			KittyScheduler.this.run();
+		}
+
+		/**
+		 * Posts this callback on first vsync after given delay.
+		 */
+		public void post(long delay) {
+			mChoreographer.postFrameCallbackDelayed(this, delay);
+		}
+
+		/**
+		 * Removes this callback.
+		 */
+		public void remove() {
+			mChoreographer.removeFrameCallback(this);
+		}
+
+		@Override
+		public synchronized void run() {
+			mChoreographer = Choreographer.getInstance();
+			notifyAll();
+		}
+	}
+
+}
@@ -16,7 +16,11 @@
 
 package fi.harism.wallpaper.hellokitty;
 
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
+
 import android.opengl.GLSurfaceView;
+import android.os.Build;
 import android.service.wallpaper.WallpaperService;
 import android.view.SurfaceHolder;
 
@@ -35,6 +39,21 @@ public final class KittyService extends WallpaperService {
 		private KittyRenderer mRenderer;
 		private WallpaperSurfaceView mWallpaperSurfaceView;
 
+		/**
+		 * Called from service dump, adds frame statistics to output of
+		 * 'adb shell dumpsys activity service KittyService'.
+		 */
+		@Override
+		protected void dump(String prefix, FileDescriptor fd,
+				PrintWriter out, String[] args) {
+			super.dump(prefix, fd, out, args);
+			if (mRenderer != null) {
+				out.print(prefix);
+				out.println("Frame statistics:");
+				mRenderer.getStats().dump(prefix + "  ", out);
+			}
+		}
+
 		@Override
 		public void onCreate(SurfaceHolder surfaceHolder) {
 
@@ -45,6 +64,10 @@ public final class KittyService extends WallpaperService {
 			mWallpaperSurfaceView = new WallpaperSurfaceView();
 			mRenderer = new KittyRenderer(mWallpaperSurfaceView);
 			mWallpaperSurfaceView.setEGLContextClientVersion(2);
+			// Keep EGL context, and FBO content with it, while paused.
+			if (Build.VERSION.SDK_INT >= 11) {
+				mWallpaperSurfaceView.setPreserveEGLContextOnPause(true);
+			}
 			mWallpaperSurfaceView.setRenderer(mRenderer);
 			mWallpaperSurfaceView
 					.setRenderMode(GLSurfaceView.RENDERMODE_WHEN_DIRTY);
@@ -54,6 +77,7 @@ public final class KittyService extends WallpaperService {
 		public final void onDestroy() {
 			super.onDestroy();
 			mRenderer.stopHandler();
+			mRenderer.release();
 			mWallpaperSurfaceView.onDestroy();
 			mWallpaperSurfaceView = null;
 		}
@@ -16,9 +16,11 @@
 
 package fi.harism.wallpaper.hellokitty;
 
-import java.util.HashMap;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 
 import android.opengl.GLES20;
+import android.opengl.GLES30;
 import android.util.Log;
 
 /**
@@ -26,49 +28,99 @@ import android.util.Log;
  */
 public final class KittyShader {
 
+	// Active attribute names, handles and handles as bit mask.
+	private int mAttribMask;
+	private String[] mAttribNames = {};
+	private int[] mAttribs = {};
+	// Rendering backend.
+	private final KittyGl mGl;
 	// Shader program handles.
 	private int mIdProgram = 0;
 	private int mIdShaderFragment = 0;
 	private int mIdShaderVertex = 0;
-	// HashMap for storing uniform/attribute handles.
-	private final HashMap<String, Integer> mShaderHandleMap = new HashMap<String, Integer>();
+	// Active uniform names, handles and last values set.
+	private String[] mUniformNames = {};
+	private float[][] mUniformValues = {};
+	private int[] mUniforms = {};
+
+	/**
+	 * Constructor takes rendering backend.
+	 */
+	public KittyShader(KittyGl gl) {
+		mGl = gl;
+	}
 
 	/**
 	 * Deletes program and shaders associated with it.
 	 */
 	public void deleteProgram() {
-		GLES20.glDeleteShader(mIdShaderFragment);
-		GLES20.glDeleteShader(mIdShaderVertex);
-		GLES20.glDeleteProgram(mIdProgram);
+		mGl.glDeleteShader(mIdShaderFragment);
+		mGl.glDeleteShader(mIdShaderVertex);
+		mGl.glDeleteProgram(mIdProgram);
 		mIdProgram = mIdShaderVertex = mIdShaderFragment = 0;
 	}
 
+	/**
+	 * Returns number of floats needed for storing uniform of given type.
+	 */
+	private static int getComponentCount(int type) {
+		switch (type) {
+		case GLES20.GL_FLOAT_VEC2:
+		case GLES20.GL_INT_VEC2:
+		case GLES20.GL_BOOL_VEC2:
+			return 2;
+		case GLES20.GL_FLOAT_VEC3:
+		case GLES20.GL_INT_VEC3:
+		case GLES20.GL_BOOL_VEC3:
+			return 3;
+		case GLES20.GL_FLOAT_VEC4:
+		case GLES20.GL_INT_VEC4:
+		case GLES20.GL_BOOL_VEC4:
+		case GLES20.GL_FLOAT_MAT2:
+			return 4;
+		case GLES20.GL_FLOAT_MAT3:
+			return 9;
+		case GLES20.GL_FLOAT_MAT4:
+			return 16;
+		default:
+			return 1;
+		}
+	}
+
+	/**
+	 * Getter for active vertex attributes as bit mask of attribute handles.
+	 * Only handles below KittyGlState.ATTRIB_COUNT are included.
+	 */
+	public int getAttribMask() {
+		return mAttribMask;
+	}
+
 	/**
 	 * Get id for given handle name. This method checks for both attribute and
-	 * uniform handles.
+	 * uniform handles by comparing names, handles used while drawing should
+	 * be resolved once after program has been set.
 	 * 
 	 * @param name
 	 *            Name of handle.
 	 * @return Id for given handle or -1 if none found.
 	 */
 	public int getHandle(String name) {
-		if (mShaderHandleMap.containsKey(name)) {
-			return mShaderHandleMap.get(name);
-		}
-		int handle = GLES20.glGetAttribLocation(mIdProgram, name);
-		if (handle == -1) {
-			handle = GLES20.glGetUniformLocation(mIdProgram, name);
+		for (int i = 0; i < mAttribNames.length; ++i) {
+			if (mAttribNames[i].equals(name)) {
+				return mAttribs[i];
+			}
 		}
-		if (handle == -1) {
-			// One should never leave log messages but am not going to follow
-			// this rule. This line comes handy if you see repeating 'not found'
-			// messages on LogCat - usually for typos otherwise annoying to
-			// spot from shader code.
-			Log.d("GlslShader", "Could not get attrib location for " + name);
-		} else {
-			mShaderHandleMap.put(name, handle);
+		for (int i = 0; i < mUniformNames.length; ++i) {
+			if (mUniformNames[i].equals(name)) {
+				return mUniforms[i];
+			}
 		}
-		return handle;
+		// One should never leave log messages but am not going to follow
+		// this rule. This line comes handy if you see repeating 'not found'
+		// messages on LogCat - usually for typos otherwise annoying to
+		// spot from shader code.
+		Log.d("GlslShader", "Could not get attrib location for " + name);
+		return -1;
 	}
 
 	/**
@@ -87,6 +139,49 @@ public final class KittyShader {
 		return res;
 	}
 
+	/**
+	 * Getter for program handle.
+	 */
+	public int getProgram() {
+		return mIdProgram;
+	}
+
+	/**
+	 * Returns index of uniform with given handle, or -1 if not found.
+	 */
+	private int getUniformIndex(int handle) {
+		for (int i = 0; i < mUniforms.length; ++i) {
+			if (mUniforms[i] == handle) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Tries to create program from binary in given cache. Returns true on
+	 * success, binary is removed from cache if driver rejects it.
+	 */
+	private boolean loadProgramBinary(KittyShaderCache cache, String key) {
+		int[] format = new int[1];
+		ByteBuffer binary = cache.read(key, format);
+		if (binary == null) {
+			return false;
+		}
+		int program = mGl.glCreateProgram();
+		mGl.glProgramBinary(program, format[0], binary, binary.capacity());
+		int[] linkStatus = new int[1];
+		mGl.glGetProgramiv(program, GLES20.GL_LINK_STATUS, linkStatus, 0);
+		if (linkStatus[0] != GLES20.GL_TRUE) {
+			mGl.glDeleteProgram(program);
+			cache.remove(key);
+			return false;
+		}
+		mIdProgram = program;
+		mIdShaderVertex = mIdShaderFragment = 0;
+		return true;
+	}
+
 	/**
 	 * Helper method for compiling a shader.
 	 * 
@@ -97,15 +192,15 @@ public final class KittyShader {
 	 * @return id for compiled shader
 	 */
 	private int loadShader(int shaderType, String source) throws Exception {
-		int shader = GLES20.glCreateShader(shaderType);
+		int shader = mGl.glCreateShader(shaderType);
 		if (shader != 0) {
-			GLES20.glShaderSource(shader, source);
-			GLES20.glCompileShader(shader);
+			mGl.glShaderSource(shader, source);
+			mGl.glCompileShader(shader);
 			int[] compiled = new int[1];
-			GLES20.glGetShaderiv(shader, GLES20.GL_COMPILE_STATUS, compiled, 0);
+			mGl.glGetShaderiv(shader, GLES20.GL_COMPILE_STATUS, compiled, 0);
 			if (compiled[0] == 0) {
-				String error = GLES20.glGetShaderInfoLog(shader);
-				GLES20.glDeleteShader(shader);
+				String error = mGl.glGetShaderInfoLog(shader);
+				mGl.glDeleteShader(shader);
 				throw new Exception(error);
 			}
 		}
@@ -125,31 +220,215 @@ public final class KittyShader {
 	 */
 	public void setProgram(String vertexSource, String fragmentSource)
 			throws Exception {
+		setProgram(vertexSource, fragmentSource, null);
+	}
+
+	/**
+	 * Loads program from given program binary cache, or compiles and links
+	 * it and stores program binary into cache if cache is supported.
+	 * 
+	 * @param vertexSource
+	 *            String presentation for vertex shader
+	 * @param fragmentSource
+	 *            String presentation for fragment shader
+	 * @param cache
+	 *            Program binary cache, or null
+	 */
+	public void setProgram(String vertexSource, String fragmentSource,
+			KittyShaderCache cache) throws Exception {
+		setProgram(vertexSource, fragmentSource, cache, null);
+	}
+
+	/**
+	 * Loads program from given program binary cache, or compiles and links
+	 * it and stores program binary into cache if cache is supported.
+	 * Attributes with given names are bound to locations matching their
+	 * index in given array, so that handles stay within vertex attributes
+	 * KittyGlState tracks. Driver chooses the rest.
+	 * 
+	 * @param vertexSource
+	 *            String presentation for vertex shader
+	 * @param fragmentSource
+	 *            String presentation for fragment shader
+	 * @param cache
+	 *            Program binary cache, or null
+	 * @param attribNames
+	 *            Attribute names bound before linking, or null
+	 */
+	public void setProgram(String vertexSource, String fragmentSource,
+			KittyShaderCache cache, String[] attribNames) throws Exception {
+		String key = null;
+		if (cache != null && cache.isSupported()) {
+			// Locations are stored in program binary.
+			String bindings = attribNames == null ? "" : Arrays
+					.toString(attribNames);
+			key = cache.getKey(bindings + vertexSource, fragmentSource);
+			if (loadProgramBinary(cache, key)) {
+				readHandles();
+				return;
+			}
+		}
+
 		mIdShaderVertex = loadShader(GLES20.GL_VERTEX_SHADER, vertexSource);
 		mIdShaderFragment = loadShader(GLES20.GL_FRAGMENT_SHADER,
 				fragmentSource);
-		int program = GLES20.glCreateProgram();
+		int program = mGl.glCreateProgram();
 		if (program != 0) {
-			GLES20.glAttachShader(program, mIdShaderVertex);
-			GLES20.glAttachShader(program, mIdShaderFragment);
-			GLES20.glLinkProgram(program);
+			mGl.glAttachShader(program, mIdShaderVertex);
+			mGl.glAttachShader(program, mIdShaderFragment);
+			int attribCount = attribNames == null ? 0 : attribNames.length;
+			for (int i = 0; i < attribCount; ++i) {
+				mGl.glBindAttribLocation(program, i, attribNames[i]);
+			}
+			if (key != null) {
+				mGl.glProgramParameteri(program,
+						GLES30.GL_PROGRAM_BINARY_RETRIEVABLE_HINT,
+						GLES20.GL_TRUE);
+			}
+			mGl.glLinkProgram(program);
 			int[] linkStatus = new int[1];
-			GLES20.glGetProgramiv(program, GLES20.GL_LINK_STATUS, linkStatus, 0);
+			mGl.glGetProgramiv(program, GLES20.GL_LINK_STATUS, linkStatus, 0);
 			if (linkStatus[0] != GLES20.GL_TRUE) {
-				String error = GLES20.glGetProgramInfoLog(program);
+				String error = mGl.glGetProgramInfoLog(program);
 				deleteProgram();
 				throw new Exception(error);
 			}
 		}
 		mIdProgram = program;
-		mShaderHandleMap.clear();
+		readHandles();
+		if (key != null) {
+			storeProgramBinary(cache, key);
+		}
+	}
+
+	/**
+	 * Reads active attribute and uniform names and handles from linked
+	 * program.
+	 */
+	private void readHandles() {
+		int[] count = new int[1], maxLength = new int[1];
+		int[] length = new int[1], size = new int[1], type = new int[1];
+
+		mGl.glGetProgramiv(mIdProgram, GLES20.GL_ACTIVE_ATTRIBUTES, count,
+				0);
+		mGl.glGetProgramiv(mIdProgram,
+				GLES20.GL_ACTIVE_ATTRIBUTE_MAX_LENGTH, maxLength, 0);
+		byte[] name = new byte[Math.max(maxLength[0], 1)];
+		mAttribMask = 0;
+		mAttribNames = new String[count[0]];
+		mAttribs = new int[count[0]];
+		for (int i = 0; i < count[0]; ++i) {
+			mGl.glGetActiveAttrib(mIdProgram, i, name.length, length, 0,
+					size, 0, type, 0, name, 0);
+			mAttribNames[i] = new String(name, 0, length[0]);
+			mAttribs[i] = mGl.glGetAttribLocation(mIdProgram,
+					mAttribNames[i]);
+			if (mAttribs[i] >= 0 && mAttribs[i] < KittyGlState.ATTRIB_COUNT) {
+				mAttribMask |= 1 << mAttribs[i];
+			} else {
+				Log.d("GlslShader", "Attrib location out of range for "
+						+ mAttribNames[i]);
+			}
+		}
+
+		mGl.glGetProgramiv(mIdProgram, GLES20.GL_ACTIVE_UNIFORMS, count, 0);
+		mGl.glGetProgramiv(mIdProgram, GLES20.GL_ACTIVE_UNIFORM_MAX_LENGTH,
+				maxLength, 0);
+		name = new byte[Math.max(maxLength[0], 1)];
+		mUniformNames = new String[count[0]];
+		mUniformValues = new float[count[0]][];
+		mUniforms = new int[count[0]];
+		for (int i = 0; i < count[0]; ++i) {
+			mGl.glGetActiveUniform(mIdProgram, i, name.length, length, 0,
+					size, 0, type, 0, name, 0);
+			// Array uniforms are reported with "[0]" suffix.
+			String uniformName = new String(name, 0, length[0]);
+			if (uniformName.endsWith("[0]")) {
+				uniformName = uniformName.substring(0,
+						uniformName.length() - 3);
+			}
+			mUniformNames[i] = uniformName;
+			mUniforms[i] = mGl.glGetUniformLocation(mIdProgram,
+					uniformName);
+			mUniformValues[i] = new float[size[0] * getComponentCount(type[0])];
+			Arrays.fill(mUniformValues[i], Float.NaN);
+		}
+	}
+
+	/**
+	 * Sets vec2 uniform with given handle unless it has same value already.
+	 * This shader program should be in use.
+	 */
+	public void setUniform2f(int handle, float x, float y) {
+		int idx = getUniformIndex(handle);
+		if (idx >= 0) {
+			float[] values = mUniformValues[idx];
+			if (values[0] != x || values[1] != y) {
+				mGl.glUniform2f(handle, x, y);
+				values[0] = x;
+				values[1] = y;
+			}
+		}
+	}
+
+	/**
+	 * Sets vec2 uniform array with given handle unless it has same values
+	 * already. This shader program should be in use.
+	 */
+	public void setUniform2fv(int handle, int count, float[] v, int offset) {
+		if (setUniformValues(handle, count * 2, v, offset)) {
+			mGl.glUniform2fv(handle, count, v, offset);
+		}
 	}
 
 	/**
-	 * Activates this shader program.
+	 * Sets vec3 uniform array with given handle unless it has same values
+	 * already. This shader program should be in use.
 	 */
-	public void useProgram() {
-		GLES20.glUseProgram(mIdProgram);
+	public void setUniform3fv(int handle, int count, float[] v, int offset) {
+		if (setUniformValues(handle, count * 3, v, offset)) {
+			mGl.glUniform3fv(handle, count, v, offset);
+		}
+	}
+
+	/**
+	 * Stores given values for uniform with given handle. Returns true if
+	 * values differ from stored ones.
+	 */
+	private boolean setUniformValues(int handle, int length, float[] v,
+			int offset) {
+		int idx = getUniformIndex(handle);
+		if (idx < 0) {
+			return false;
+		}
+		float[] values = mUniformValues[idx];
+		length = Math.min(length, values.length);
+		boolean changed = false;
+		for (int i = 0; i < length; ++i) {
+			if (values[i] != v[offset + i]) {
+				values[i] = v[offset + i];
+				changed = true;
+			}
+		}
+		return changed;
+	}
+
+	/**
+	 * Stores binary of current program into given cache.
+	 */
+	private void storeProgramBinary(KittyShaderCache cache, String key) {
+		int[] length = new int[1], format = new int[1];
+		mGl.glGetProgramiv(mIdProgram, GLES30.GL_PROGRAM_BINARY_LENGTH,
+				length, 0);
+		if (length[0] <= 0) {
+			return;
+		}
+		ByteBuffer binary = ByteBuffer.allocateDirect(length[0]);
+		mGl.glGetProgramBinary(mIdProgram, length[0], length, 0, format, 0,
+				binary);
+		if (length[0] > 0) {
+			cache.write(key, format[0], binary, length[0]);
+		}
 	}
 
 }
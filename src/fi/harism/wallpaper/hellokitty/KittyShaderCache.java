@@ -0,0 +1,159 @@
+/*
+   Copyright 2012 Harri Smatt
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package fi.harism.wallpaper.hellokitty;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+
+import android.opengl.GLES20;
+import android.os.Build;
+
+/**
+ * On-disk cache for linked shader program binaries. Binaries are keyed by
+ * shader sources and driver, GL_RENDERER and GL_VERSION, and are used only
+ * with OpenGL ES 3.0 on API 18+. Files not matching current driver are
+ * ignored, callers should fall back to compiling shaders if loading binary
+ * fails for any reason.
+ */
+public final class KittyShaderCache {
+
+	// Cache file format version.
+	private static final int VERSION = 1;
+
+	// Cache directory.
+	private final File mDir;
+	// Driver description binaries are valid for.
+	private final String mDriver;
+	// True if program binaries are supported.
+	private final boolean mSupported;
+
+	/**
+	 * Constructor takes rendering backend with current context and cache
+	 * directory, null disables cache.
+	 */
+	public KittyShaderCache(KittyGl gl, File dir) {
+		String version = gl.glGetString(GLES20.GL_VERSION);
+		mDir = dir;
+		mDriver = gl.glGetString(GLES20.GL_RENDERER) + " " + version;
+		mSupported = dir != null && Build.VERSION.SDK_INT >= 18
+				&& version != null && version.startsWith("OpenGL ES 3");
+	}
+
+	/**
+	 * Returns cache file for given key.
+	 */
+	private File getFile(String key) {
+		return new File(mDir, "shader_" + key + ".bin");
+	}
+
+	/**
+	 * Returns cache key for program with given shader sources.
+	 */
+	public String getKey(String vertexSource, String fragmentSource)
+			throws Exception {
+		MessageDigest digest = MessageDigest.getInstance("SHA-1");
+		digest.update(mDriver.getBytes("UTF-8"));
+		digest.update((byte) 0);
+		digest.update(vertexSource.getBytes("UTF-8"));
+		digest.update((byte) 0);
+		digest.update(fragmentSource.getBytes("UTF-8"));
+		StringBuilder key = new StringBuilder();
+		for (byte b : digest.digest()) {
+			key.append(Integer.toHexString((b & 0xFF) | 0x100).substring(1));
+		}
+		return key.toString();
+	}
+
+	/**
+	 * Returns true if program binaries are supported.
+	 */
+	public boolean isSupported() {
+		return mSupported;
+	}
+
+	/**
+	 * Reads program binary with given key into a direct buffer and stores its
+	 * format into given array. Returns null if there is no valid binary.
+	 */
+	public ByteBuffer read(String key, int[] format) {
+		File file = getFile(key);
+		if (!file.exists()) {
+			return null;
+		}
+		try {
+			DataInputStream is = new DataInputStream(new FileInputStream(file));
+			try {
+				if (is.readInt() != VERSION || !is.readUTF().equals(mDriver)) {
+					return null;
+				}
+				format[0] = is.readInt();
+				byte[] data = new byte[is.readInt()];
+				is.readFully(data);
+				ByteBuffer binary = ByteBuffer.allocateDirect(data.length);
+				binary.put(data).position(0);
+				return binary;
+			} finally {
+				is.close();
+			}
+		} catch (Exception ex) {
+			remove(key);
+			return null;
+		}
+	}
+
+	/**
+	 * Removes program binary with given key.
+	 */
+	public void remove(String key) {
+		getFile(key).delete();
+	}
+
+	/**
+	 * Writes given program binary of given format and length in bytes. File
+	 * is written under temporary name first so that readers never see
+	 * partially written binaries.
+	 */
+	public void write(String key, int format, ByteBuffer binary, int length) {
+		byte[] data = new byte[length];
+		binary.position(0);
+		binary.get(data);
+		File file = getFile(key + ".tmp");
+		try {
+			DataOutputStream os = new DataOutputStream(new FileOutputStream(
+					file));
+			try {
+				os.writeInt(VERSION);
+				os.writeUTF(mDriver);
+				os.writeInt(format);
+				os.writeInt(length);
+				os.write(data);
+			} finally {
+				os.close();
+			}
+			if (!file.renameTo(getFile(key))) {
+				file.delete();
+			}
+		} catch (Exception ex) {
+			file.delete();
+		}
+	}
+
+}
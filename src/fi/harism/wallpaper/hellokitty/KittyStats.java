@@ -0,0 +1,272 @@
+/*
+   Copyright 2012 Harri Smatt
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package fi.harism.wallpaper.hellokitty;
+
+import java.io.PrintWriter;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Frame statistics collected on rendering thread. Frame times are kept in
+ * histograms per animation, along with drawn bezier and draw call counts,
+ * missed vsyncs and idle time between frames. Recording doesn't allocate or
+ * lock, there is only one writer and readers retry until they see a
+ * consistent copy of counters. Counters are written as volatile so that
+ * their updates stay between sequence number updates.
+ */
+public final class KittyStats {
+
+	// States frames are rendered in, animation types and no animation.
+	public static final int STATE_BLINK = KittyAnimation.TYPE_BLINK;
+	public static final int STATE_CLEAR = KittyAnimation.TYPE_CLEAR;
+	public static final int STATE_MOVE = KittyAnimation.TYPE_MOVE;
+	public static final int STATE_NONE = 4;
+	public static final int STATE_RENDER = KittyAnimation.TYPE_RENDER;
+	// Animation type names.
+	private static final String[] TYPE_NAMES = { "blink", "clear", "move",
+			"render" };
+
+	// Number of animations statistics are kept for separately, frames of
+	// later animations are recorded together.
+	private static final int ANIMATION_COUNT = 15;
+	// Statistics slots, one per animation, one for frames without animation
+	// and one for animations past ANIMATION_COUNT.
+	private static final int SLOT_NONE = ANIMATION_COUNT;
+	private static final int SLOT_OTHER = ANIMATION_COUNT + 1;
+	private static final int SLOT_COUNT = ANIMATION_COUNT + 2;
+
+	// Frame time histogram bucket upper limits in microseconds.
+	private static final long[] FRAME_LIMITS = { 1000, 2000, 4000, 8000,
+			12000, 16000, 24000, 33000, 50000, 100000 };
+	// Idle time histogram bucket upper limits in milliseconds.
+	private static final long[] IDLE_LIMITS = { 17, 33, 100, 250, 1000, 5000,
+			30000 };
+	// Number of read attempts before accepting inconsistent copy.
+	private static final int READ_RETRIES = 100;
+
+	// Counter indices within state, histogram buckets follow counters.
+	private static final int STAT_FRAMES = 0;
+	private static final int STAT_TIME_TOTAL = 1;
+	private static final int STAT_TIME_MAX = 2;
+	private static final int STAT_BEZIERS = 3;
+	private static final int STAT_BEZIERS_MAX = 4;
+	private static final int STAT_DRAWS = 5;
+	private static final int STAT_DRAWS_MAX = 6;
+	private static final int STAT_VSYNCS_MISSED = 7;
+	private static final int STAT_BUCKETS = 8;
+	private static final int STAT_SIZE = STAT_BUCKETS + FRAME_LIMITS.length
+			+ 1;
+	// Idle counters follow state counters.
+	private static final int IDLE_OFFSET = SLOT_COUNT * STAT_SIZE;
+	private static final int IDLE_COUNT = IDLE_OFFSET;
+	private static final int IDLE_TIME_TOTAL = IDLE_OFFSET + 1;
+	private static final int IDLE_BUCKETS = IDLE_OFFSET + 2;
+	private static final int COUNTER_SIZE = IDLE_BUCKETS + IDLE_LIMITS.length
+			+ 1;
+
+	// Animation names by slot, set once scene has been loaded.
+	private volatile String[] mAnimationNames = {};
+	// All counters, written by rendering thread only.
+	private final AtomicLongArray mCounters = new AtomicLongArray(
+			COUNTER_SIZE);
+	// Sequence number, odd while counters are being updated.
+	private volatile int mSequence;
+	// Start time of current frame in nanoseconds.
+	private long mTimeFrame;
+	// End time of previous frame in nanoseconds, -1 if there is none.
+	private long mTimeFrameLast = -1;
+	// Milliseconds from renderer creation until scene was loaded and until
+	// first frame with scene was rendered, -1 if not yet.
+	private volatile long mTimeSceneLoaded = -1, mTimeFirstFrame = -1;
+
+	/**
+	 * Returns index of histogram bucket given value falls into.
+	 */
+	private static int getBucket(long[] limits, long value) {
+		int bucket = 0;
+		while (bucket < limits.length && value > limits[bucket]) {
+			++bucket;
+		}
+		return bucket;
+	}
+
+	/**
+	 * Writes statistics into given writer, each line starting with given
+	 * prefix. Can be called from any thread.
+	 */
+	public void dump(String prefix, PrintWriter out) {
+		long[] counters = new long[COUNTER_SIZE];
+		for (int i = 0; i < READ_RETRIES; ++i) {
+			int sequence = mSequence;
+			for (int j = 0; j < COUNTER_SIZE; ++j) {
+				counters[j] = mCounters.get(j);
+			}
+			if ((sequence & 1) == 0 && sequence == mSequence) {
+				break;
+			}
+			Thread.yield();
+		}
+
+		out.printf("%sstartup: scene loaded=%dms first frame=%dms%n", prefix,
+				mTimeSceneLoaded, mTimeFirstFrame);
+		String[] names = mAnimationNames;
+		for (int i = 0; i < SLOT_COUNT; ++i) {
+			int offset = i * STAT_SIZE;
+			long frames = counters[offset + STAT_FRAMES];
+			if (frames == 0) {
+				continue;
+			}
+			String name = i == SLOT_NONE ? "none" : i == SLOT_OTHER ? "other"
+					: i < names.length ? names[i] : "animation " + i;
+			out.printf("%s%s: frames=%d avg=%.2fms max=%.2fms missed=%d%n",
+					prefix, name, frames,
+					counters[offset + STAT_TIME_TOTAL] / (frames * 1000.0),
+					counters[offset + STAT_TIME_MAX] / 1000.0,
+					counters[offset + STAT_VSYNCS_MISSED]);
+			out.printf("%s  beziers avg=%.1f max=%d, draws avg=%.1f max=%d%n",
+					prefix, (double) counters[offset + STAT_BEZIERS] / frames,
+					counters[offset + STAT_BEZIERS_MAX],
+					(double) counters[offset + STAT_DRAWS] / frames,
+					counters[offset + STAT_DRAWS_MAX]);
+			dumpHistogram(prefix + "  ms ", out, FRAME_LIMITS, 1000, counters,
+					offset + STAT_BUCKETS);
+		}
+
+		long idleCount = counters[IDLE_COUNT];
+		if (idleCount > 0) {
+			out.printf("%sidle: count=%d avg=%.1fms%n", prefix, idleCount,
+					(double) counters[IDLE_TIME_TOTAL] / idleCount);
+			dumpHistogram(prefix + "  ms ", out, IDLE_LIMITS, 1, counters,
+					IDLE_BUCKETS);
+		}
+	}
+
+	/**
+	 * Writes non-empty histogram buckets on one line. Bucket limits are
+	 * divided by given divisor.
+	 */
+	private static void dumpHistogram(String prefix, PrintWriter out,
+			long[] limits, int divisor, long[] counters, int offset) {
+		out.print(prefix);
+		for (int i = 0; i <= limits.length; ++i) {
+			long count = counters[offset + i];
+			if (count == 0) {
+				continue;
+			}
+			if (i < limits.length) {
+				out.print("<=" + limits[i] / divisor);
+			} else {
+				out.print(">" + limits[limits.length - 1] / divisor);
+			}
+			out.print(":" + count + " ");
+		}
+		out.println();
+	}
+
+	/**
+	 * Marks end of current frame rendered for given animation, -1 if none,
+	 * with given number of beziers and draw calls and vsyncs missed before
+	 * frame started. Frame time covers issuing GL commands on rendering
+	 * thread.
+	 */
+	public void frameEnded(int animation, int beziers, int draws,
+			int vsyncsMissed) {
+		long time = System.nanoTime();
+		long duration = (time - mTimeFrame) / 1000;
+		int slot = animation < 0 ? SLOT_NONE
+				: animation < ANIMATION_COUNT ? animation : SLOT_OTHER;
+		int offset = slot * STAT_SIZE;
+
+		++mSequence;
+		AtomicLongArray counters = mCounters;
+		increment(offset + STAT_FRAMES, 1);
+		increment(offset + STAT_TIME_TOTAL, duration);
+		counters.set(offset + STAT_TIME_MAX, Math.max(
+				counters.get(offset + STAT_TIME_MAX), duration));
+		increment(offset + STAT_BEZIERS, beziers);
+		counters.set(offset + STAT_BEZIERS_MAX, Math.max(
+				counters.get(offset + STAT_BEZIERS_MAX), beziers));
+		increment(offset + STAT_DRAWS, draws);
+		counters.set(offset + STAT_DRAWS_MAX, Math.max(
+				counters.get(offset + STAT_DRAWS_MAX), draws));
+		increment(offset + STAT_VSYNCS_MISSED, vsyncsMissed);
+		increment(offset + STAT_BUCKETS + getBucket(FRAME_LIMITS, duration),
+				1);
+		++mSequence;
+
+		mTimeFrameLast = time;
+	}
+
+	/**
+	 * Marks start of new frame, time since previous frame ended is recorded
+	 * as idle time.
+	 */
+	public void frameStarted() {
+		mTimeFrame = System.nanoTime();
+		if (mTimeFrameLast >= 0) {
+			long idle = (mTimeFrame - mTimeFrameLast) / 1000000;
+			++mSequence;
+			increment(IDLE_COUNT, 1);
+			increment(IDLE_TIME_TOTAL, idle);
+			increment(IDLE_BUCKETS + getBucket(IDLE_LIMITS, idle), 1);
+			++mSequence;
+		}
+	}
+
+	/**
+	 * Adds given value to counter with given index. Counters have only one
+	 * writer, so plain read and volatile write are enough.
+	 */
+	private void increment(int index, long value) {
+		mCounters.set(index, mCounters.get(index) + value);
+	}
+
+	/**
+	 * Sets animations frames are recorded for, names are built from animation
+	 * types and ids of layers they operate on.
+	 */
+	public void setAnimations(KittyScene scene, KittyAnimation animation) {
+		String[] names = new String[Math.min(animation.getCount(),
+				ANIMATION_COUNT)];
+		for (int i = 0; i < names.length; ++i) {
+			StringBuilder name = new StringBuilder(
+					TYPE_NAMES[animation.getType(i)]);
+			for (int j = 0; j < animation.getLayerCount(i); ++j) {
+				name.append(j == 0 ? " " : ",");
+				name.append(scene.getLayerId(animation.getLayer(i, j)));
+			}
+			names[i] = name.toString();
+		}
+		mAnimationNames = names;
+	}
+
+	/**
+	 * Sets time from renderer creation until first frame with scene was
+	 * rendered, ignored if it has been set already.
+	 */
+	public void setTimeFirstFrame(long time) {
+		if (mTimeFirstFrame < 0) {
+			mTimeFirstFrame = time;
+		}
+	}
+
+	/**
+	 * Sets time from renderer creation until scene was loaded.
+	 */
+	public void setTimeSceneLoaded(long time) {
+		mTimeSceneLoaded = time;
+	}
+
+}
@@ -17,7 +17,9 @@
 package fi.harism.wallpaper.hellokitty;
 
 import java.io.InputStream;
-import java.util.Vector;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.Arrays;
 
 import javax.xml.parsers.SAXParser;
 import javax.xml.parsers.SAXParserFactory;
@@ -25,34 +27,59 @@ import javax.xml.parsers.SAXParserFactory;
 import org.xml.sax.AttributeList;
 import org.xml.sax.HandlerBase;
 
-import android.graphics.Color;
-import android.graphics.Matrix;
-
+/**
+ * Scene xml reader. Used by KittySceneCompiler only, scene is loaded from
+ * compiled binary data at runtime.
+ */
 public final class KittySvg extends HandlerBase {
 
-	private KittyLayer mLayerCurrent;
-	private Vector<KittyLayer> mLayers = new Vector<KittyLayer>();
+	// Powers of ten exactly representable as doubles.
+	private static final double[] POW10 = { 1e0, 1e1, 1e2, 1e3, 1e4, 1e5,
+			1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12, 1e13, 1e14, 1e15, 1e16,
+			1e17, 1e18, 1e19, 1e20, 1e21, 1e22 };
+
+	// Bezier colors, start times and durations and control points.
+	private int mBezierCount;
+	private int[] mColors = new int[64];
+	// Layer ids, bezier offsets and transforms.
+	private int mLayerCount;
+	private String[] mLayerIds = new String[16];
+	private int[] mLayerOffsets = new int[17];
+	private float[] mLayerTransforms = new float[16 * 3];
+	private float[] mPoints = new float[64 * 16];
+	private int[] mTimes = new int[64 * 2];
+	// Scratch storage for normals and line center control points.
+	private final float[] mNormals = new float[8];
+	private final float[] mTempBezier = new float[8];
+	// Scratch storage for attribute values, reused between elements.
+	private final Values mValuesPts1 = new Values();
+	private final Values mValuesPts2 = new Values();
+	private final Values mValuesTime = new Values();
+	private final Values mValuesWidth = new Values();
+
+	/**
+	 * Adds new bezier into current layer and returns its index. Control
+	 * points are left for caller to fill.
+	 */
+	private int allocBezier(int color, Values time, int idx) {
+		if (mBezierCount == mColors.length) {
+			mColors = Arrays.copyOf(mColors, mBezierCount * 2);
+			mTimes = Arrays.copyOf(mTimes, mBezierCount * 4);
+			mPoints = Arrays.copyOf(mPoints, mBezierCount * 32);
+		}
 
-	private KittyBezier allocBezier(AttributeList attrs, int idx) {
 		// Read start and end time.
-		Vector<Float> t = readValues(attrs.getValue("time"));
-		long tStart = Math.round(t.get(idx * 2 + 0));
-		long tDuration = Math.round(t.get(idx * 2 + 1));
-
-		int color = Color.parseColor(attrs.getValue("color"));
-		float colorArr[] = new float[3];
-		colorArr[0] = Color.red(color) / 255f;
-		colorArr[1] = Color.green(color) / 255f;
-		colorArr[2] = Color.blue(color) / 255f;
-
-		KittyBezier bezier = new KittyBezier(colorArr, tStart, tDuration);
-		return bezier;
+		mTimes[mBezierCount * 2 + 0] = Math.round(time.mValues[idx * 2 + 0]);
+		mTimes[mBezierCount * 2 + 1] = Math.round(time.mValues[idx * 2 + 1]);
+		mColors[mBezierCount] = color;
+		mLayerOffsets[mLayerCount] = mBezierCount + 1;
+		return mBezierCount++;
 	}
 
 	/**
 	 * Calculates normal at given t.
 	 */
-	private void calculateNormal(float[] bezier, float t, float[] ret,
+	void calculateNormal(float[] bezier, float t, float[] ret,
 			int retIdx) {
 		// Calculate x -coordinate.
 		float xq0 = bezier[0] + (bezier[2] - bezier[0]) * t;
@@ -77,22 +104,34 @@ public final class KittySvg extends HandlerBase {
 	}
 
 	/**
-	 * Returns layer with given id, or null if not found.
+	 * Returns scene read so far.
 	 */
-	public KittyLayer getLayer(String id) {
-		for (KittyLayer layer : mLayers) {
-			if (layer.mId.equals(id)) {
-				return layer;
-			}
-		}
-		return null;
+	public KittyScene getScene() {
+		String[] layerIds = Arrays.copyOf(mLayerIds, mLayerCount);
+		int[] layerOffsets = Arrays.copyOf(mLayerOffsets, mLayerCount + 1);
+		float[] layerTransforms = Arrays.copyOf(mLayerTransforms,
+				mLayerCount * 3);
+		int[] colors = Arrays.copyOf(mColors, mBezierCount);
+		int[] times = Arrays.copyOf(mTimes, mBezierCount * 2);
+		float[] points = Arrays.copyOf(mPoints, mBezierCount * 16);
+		return new KittyScene(layerIds, layerOffsets, layerTransforms,
+				IntBuffer.wrap(colors), IntBuffer.wrap(times),
+				FloatBuffer.wrap(points));
 	}
 
 	/**
-	 * Returns all layers.
+	 * Parses color of format "#RRGGBB" into 0xRRGGBB.
 	 */
-	public Vector<KittyLayer> getLayers() {
-		return mLayers;
+	private int parseColor(String color) {
+		int ret = 0;
+		for (int i = 1; i < color.length(); ++i) {
+			int digit = Character.digit(color.charAt(i), 16);
+			if (color.charAt(0) != '#' || digit < 0) {
+				throw new NumberFormatException("Invalid color: " + color);
+			}
+			ret = (ret << 4) | digit;
+		}
+		return ret & 0xFFFFFF;
 	}
 
 	/**
@@ -105,112 +144,178 @@ public final class KittySvg extends HandlerBase {
 	}
 
 	/**
-	 * Reads values from given String of format "xx,yy,.. xx,yy,.. xx,yy,..".
+	 * Reads values from given String of format "xx,yy,.. xx,yy,.. xx,yy,.."
+	 * into given storage. Numbers are parsed directly from characters without
+	 * creating intermediate Strings.
 	 */
-	private Vector<Float> readValues(String d) {
-		Vector<Float> ret = new Vector<Float>();
-		while (true) {
-			int splitIdx = d.indexOf(',');
-			int splitIdx2 = d.indexOf(' ');
-			if (splitIdx == -1 || (splitIdx2 > 0 && splitIdx2 < splitIdx)) {
-				splitIdx = splitIdx2;
+	void readValues(String d, Values values) {
+		values.mCount = 0;
+		int len = d.length();
+		int idx = 0;
+		while (idx < len) {
+			char c = d.charAt(idx);
+			// Skip separators.
+			if (c == ',' || Character.isWhitespace(c)) {
+				++idx;
+				continue;
 			}
-			if (splitIdx == -1) {
-				break;
+
+			boolean negative = c == '-';
+			if (c == '-' || c == '+') {
+				++idx;
 			}
-			ret.add(Float.parseFloat(d.substring(0, splitIdx)));
-			d = d.substring(splitIdx + 1).trim();
-		}
-		if (d.length() > 0) {
-			ret.add(Float.parseFloat(d));
+
+			// Read up to 18 significant digits into mantissa, exponent
+			// compensates for dropped and fractional digits.
+			long mantissa = 0;
+			int digits = 0, exponent = 0;
+			boolean fraction = false;
+			for (; idx < len; ++idx) {
+				c = d.charAt(idx);
+				if (c == '.' && !fraction) {
+					fraction = true;
+				} else if (c >= '0' && c <= '9') {
+					if (mantissa < 100000000000000000L) {
+						mantissa = mantissa * 10 + (c - '0');
+						exponent -= fraction ? 1 : 0;
+					} else {
+						exponent += fraction ? 0 : 1;
+					}
+					++digits;
+				} else {
+					break;
+				}
+			}
+			if (digits == 0) {
+				throw new NumberFormatException("Invalid value: " + d);
+			}
+
+			// Optional exponent.
+			if (idx < len && (d.charAt(idx) == 'e' || d.charAt(idx) == 'E')) {
+				boolean expNegative = ++idx < len && d.charAt(idx) == '-';
+				if (idx < len && (d.charAt(idx) == '-' || d.charAt(idx) == '+')) {
+					++idx;
+				}
+				int exp = 0;
+				while (idx < len && (c = d.charAt(idx)) >= '0' && c <= '9') {
+					exp = Math.min(exp * 10 + (c - '0'), 1000);
+					++idx;
+				}
+				exponent += expNegative ? -exp : exp;
+			}
+
+			double value = mantissa;
+			if (exponent < 0) {
+				value /= -exponent < POW10.length ? POW10[-exponent] : Math
+						.pow(10, -exponent);
+			} else if (exponent > 0) {
+				value *= exponent < POW10.length ? POW10[exponent] : Math.pow(
+						10, exponent);
+			}
+
+			if (values.mCount == values.mValues.length) {
+				values.mValues = Arrays.copyOf(values.mValues,
+						values.mCount * 2);
+			}
+			values.mValues[values.mCount++] = (float) (negative ? -value
+					: value);
 		}
-		return ret;
 	}
 
 	@Override
 	public void startElement(String name, AttributeList attrs) {
 		// New layer.
 		if (name.equals("layer")) {
-			String id = attrs.getValue("id");
-			Vector<Float> t = readValues(attrs.getValue("translate"));
-			float s = Float.parseFloat(attrs.getValue("scale"));
+			if (mLayerCount == mLayerIds.length) {
+				mLayerIds = Arrays.copyOf(mLayerIds, mLayerCount * 2);
+				mLayerOffsets = Arrays.copyOf(mLayerOffsets,
+						mLayerCount * 2 + 1);
+				mLayerTransforms = Arrays.copyOf(mLayerTransforms,
+						mLayerCount * 6);
+			}
 
-			final Matrix transform = new Matrix();
-			transform.setTranslate(t.get(0), t.get(1));
-			transform.postScale(s, s);
+			readValues(attrs.getValue("translate"), mValuesPts1);
+			readValues(attrs.getValue("scale"), mValuesPts2);
+			float[] t = mValuesPts1.mValues;
+			float s = mValuesPts2.mValues[0];
 
-			mLayerCurrent = new KittyLayer(id, transform);
-			mLayers.add(mLayerCurrent);
+			mLayerIds[mLayerCount] = attrs.getValue("id");
+			mLayerTransforms[mLayerCount * 3 + 0] = t[0];
+			mLayerTransforms[mLayerCount * 3 + 1] = t[1];
+			mLayerTransforms[mLayerCount * 3 + 2] = s;
+			mLayerOffsets[++mLayerCount] = mBezierCount;
 		}
 		// New fill element.
 		if (name.equals("fill")) {
 
-			Vector<Float> pts1 = readValues(attrs.getValue("pts1"));
-			Vector<Float> pts2 = readValues(attrs.getValue("pts2"));
+			readValues(attrs.getValue("pts1"), mValuesPts1);
+			readValues(attrs.getValue("pts2"), mValuesPts2);
+			readValues(attrs.getValue("time"), mValuesTime);
+			int color = parseColor(attrs.getValue("color"));
+			float[] pts1 = mValuesPts1.mValues;
+			float[] pts2 = mValuesPts2.mValues;
 
-			int count = (Math.min(pts1.size(), pts2.size()) - 2) / 6;
+			int count = Math.min(mValuesPts1.mCount, mValuesPts2.mCount);
+			count = (count - 2) / 6;
 			for (int i = 0; i < count; ++i) {
-				KittyBezier bezier = allocBezier(attrs, i);
-				bezier.mPts0 = new float[8];
-				bezier.mPts1 = new float[8];
-
-				for (int j = 0; j < 8; ++j) {
-					int idx = i * 6 + j;
-					bezier.mPts0[j] = pts1.get(idx);
-					bezier.mPts1[j] = pts2.get(idx);
-				}
-
-				mLayerCurrent.add(bezier);
+				int bezier = allocBezier(color, mValuesTime, i);
+				System.arraycopy(pts1, i * 6, mPoints, bezier * 16, 8);
+				System.arraycopy(pts2, i * 6, mPoints, bezier * 16 + 8, 8);
 			}
 		}
 		// New line element.
 		if (name.equals("line")) {
 
-			Vector<Float> width = readValues(attrs.getValue("width"));
-			Vector<Float> pts = readValues(attrs.getValue("pts"));
+			readValues(attrs.getValue("width"), mValuesWidth);
+			readValues(attrs.getValue("pts"), mValuesPts1);
+			readValues(attrs.getValue("time"), mValuesTime);
+			int color = parseColor(attrs.getValue("color"));
+			float[] width = mValuesWidth.mValues;
+			float[] pts = mValuesPts1.mValues;
 
-			int count = (pts.size() - 2) / 6;
+			int count = (mValuesPts1.mCount - 2) / 6;
 			for (int i = 0; i < count; ++i) {
-				KittyBezier bezier = allocBezier(attrs, i);
+				int bezier = allocBezier(color, mValuesTime, i);
+				int pts0 = bezier * 16, pts1 = bezier * 16 + 8;
 
-				float[] pts0 = bezier.mPts0 = new float[8];
-				float[] pts1 = bezier.mPts1 = new float[8];
-
-				for (int j = 0; j < 8; ++j) {
-					int idx = i * 6 + j;
-					pts0[j] = pts.get(idx);
-					pts1[j] = pts.get(idx);
-				}
+				float[] center = mTempBezier;
+				System.arraycopy(pts, i * 6, center, 0, 8);
 
 				// Calculate normals at end points and control points.
-				float[] normals = new float[8];
-				calculateNormal(pts0, 0 / 3f, normals, 0);
-				calculateNormal(pts0, 1 / 3f, normals, 2);
-				calculateNormal(pts0, 2 / 3f, normals, 4);
-				calculateNormal(pts0, 3 / 3f, normals, 6);
+				float[] normals = mNormals;
+				calculateNormal(center, 0 / 3f, normals, 0);
+				calculateNormal(center, 1 / 3f, normals, 2);
+				calculateNormal(center, 2 / 3f, normals, 4);
+				calculateNormal(center, 3 / 3f, normals, 6);
 
 				// Adjust control points with width and normal.
 				int scaleIdx = i * 3;
 				for (int j = 0; j < 8; ++j) {
-					float diff = normals[j] * width.get(scaleIdx + j / 2) / 2;
-					pts0[j] -= diff;
-					pts1[j] += diff;
+					float diff = normals[j] * width[scaleIdx + j / 2] / 2;
+					mPoints[pts0 + j] = center[j] - diff;
+					mPoints[pts1 + j] = center[j] + diff;
 				}
 
 				// If this isn't first bezier, connect control points at the end
 				// of last one and first one of this one.
 				if (i > 0) {
-					KittyBezier prevBezier = mLayerCurrent.mBeziers
-							.get(mLayerCurrent.mBeziers.size() - 1);
-					pts0[0] = prevBezier.mPts0[6];
-					pts0[1] = prevBezier.mPts0[7];
-					pts1[0] = prevBezier.mPts1[6];
-					pts1[1] = prevBezier.mPts1[7];
+					mPoints[pts0 + 0] = mPoints[pts0 - 16 + 6];
+					mPoints[pts0 + 1] = mPoints[pts0 - 16 + 7];
+					mPoints[pts1 + 0] = mPoints[pts1 - 16 + 6];
+					mPoints[pts1 + 1] = mPoints[pts1 - 16 + 7];
 				}
-
-				mLayerCurrent.add(bezier);
 			}
 
 		}
 	}
+
+	/**
+	 * Reusable storage for values read from an attribute.
+	 */
+	static final class Values {
+		// Number of values read.
+		public int mCount;
+		// Values array, grows when needed.
+		public float[] mValues = new float[64];
+	}
 }
@@ -0,0 +1,98 @@
+/*
+   Copyright 2012 Harri Smatt
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package fi.harism.wallpaper.hellokitty;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+
+/**
+ * Helper class for choosing bezier tessellation density. Segment count is
+ * chosen from a small set of counts so that distance between curve and its
+ * tessellation stays below given tolerance in pixels. Prebuilt strip vertex
+ * buffers are kept for each count.
+ */
+public final class KittyTessellator {
+
+	// Available segment counts.
+	private static final int[] SEGMENT_COUNTS = { 4, 8, 16, 32, 64 };
+	// Maximum distance between curve and its tessellation in pixels.
+	private static final float TOLERANCE = .25f;
+
+	// Strip vertex buffers for each segment count.
+	private final FloatBuffer[] mStrips = new FloatBuffer[
+			SEGMENT_COUNTS.length];
+
+	/**
+	 * Default constructor.
+	 */
+	public KittyTessellator() {
+		for (int i = 0; i < SEGMENT_COUNTS.length; ++i) {
+			int segmentCount = SEGMENT_COUNTS[i];
+			ByteBuffer buf = ByteBuffer.allocateDirect(4 * 4
+					* (segmentCount + 1));
+			mStrips[i] = buf.order(ByteOrder.nativeOrder()).asFloatBuffer();
+			for (int j = 0; j <= segmentCount; ++j) {
+				float t = (float) j / segmentCount;
+				mStrips[i].put(t).put(-1);
+				mStrips[i].put(t).put(1);
+			}
+			mStrips[i].position(0);
+		}
+	}
+
+	/**
+	 * Returns segment count needed for bezier with 16 control point
+	 * coordinates starting from ptsIdx, top points first. Scale converts
+	 * control point coordinates into pixels.
+	 */
+	public static int getSegmentCount(float[] pts, int ptsIdx, float scale) {
+		// Wang's formula, segment count n for cubic curve is
+		// sqrt(3 * M / (4 * tolerance)) where M is maximum length of second
+		// differences of control points.
+		float maxLength = 0;
+		for (int i = ptsIdx; i < ptsIdx + 16; i += 8) {
+			for (int j = i; j < i + 4; j += 2) {
+				float dx = pts[j] - 2 * pts[j + 2] + pts[j + 4];
+				float dy = pts[j + 1] - 2 * pts[j + 3] + pts[j + 5];
+				maxLength = Math.max(maxLength, dx * dx + dy * dy);
+			}
+		}
+		maxLength = (float) Math.sqrt(maxLength) * scale;
+		float count = (float) Math.sqrt(3 * maxLength / (4 * TOLERANCE));
+		for (int segmentCount : SEGMENT_COUNTS) {
+			if (segmentCount >= count) {
+				return segmentCount;
+			}
+		}
+		return SEGMENT_COUNTS[SEGMENT_COUNTS.length - 1];
+	}
+
+	/**
+	 * Returns strip vertex buffer for given segment count. Strip contains
+	 * two vertices, (t, -1) and (t, 1), for each segment end point.
+	 */
+	public FloatBuffer getStrip(int segmentCount) {
+		for (int i = 0; i < SEGMENT_COUNTS.length - 1; ++i) {
+			if (SEGMENT_COUNTS[i] >= segmentCount) {
+				return mStrips[i];
+			}
+		}
+		return mStrips[SEGMENT_COUNTS.length - 1];
+	}
+
+}
@@ -0,0 +1,174 @@
+/*
+   Copyright 2012 Harri Smatt
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package fi.harism.wallpaper.hellokitty;
+
+/**
+ * 2D affine transform for scene geometry, plain Java replacement for
+ * android.graphics.Matrix. Operations modify transform in place and apply
+ * after current transform, mapping points never allocates.
+ */
+public final class KittyTransform {
+
+	// Transform maps (x, y) into (x * mScaleX + y * mSkewX + mTranslateX,
+	// x * mSkewY + y * mScaleY + mTranslateY).
+	private float mScaleX, mSkewX, mTranslateX;
+	private float mSkewY, mScaleY, mTranslateY;
+
+	/**
+	 * Default constructor, creates identity transform.
+	 */
+	public KittyTransform() {
+		reset();
+	}
+
+	/**
+	 * Concatenates given transform after this one.
+	 */
+	public void concat(KittyTransform t) {
+		float scaleX = t.mScaleX * mScaleX + t.mSkewX * mSkewY;
+		float skewX = t.mScaleX * mSkewX + t.mSkewX * mScaleY;
+		float translateX = t.mScaleX * mTranslateX + t.mSkewX * mTranslateY
+				+ t.mTranslateX;
+		float skewY = t.mSkewY * mScaleX + t.mScaleY * mSkewY;
+		float scaleY = t.mSkewY * mSkewX + t.mScaleY * mScaleY;
+		float translateY = t.mSkewY * mTranslateX + t.mScaleY * mTranslateY
+				+ t.mTranslateY;
+		mScaleX = scaleX;
+		mSkewX = skewX;
+		mTranslateX = translateX;
+		mSkewY = skewY;
+		mScaleY = scaleY;
+		mTranslateY = translateY;
+	}
+
+	/**
+	 * Returns x scale.
+	 */
+	public float getScaleX() {
+		return mScaleX;
+	}
+
+	/**
+	 * Returns y scale.
+	 */
+	public float getScaleY() {
+		return mScaleY;
+	}
+
+	/**
+	 * Returns x translation.
+	 */
+	public float getTranslateX() {
+		return mTranslateX;
+	}
+
+	/**
+	 * Returns y translation.
+	 */
+	public float getTranslateY() {
+		return mTranslateY;
+	}
+
+	/**
+	 * Maps given number of points, stored as x, y coordinate pairs starting
+	 * from srcIdx, into dst starting from dstIdx. Source and destination may
+	 * be the same array.
+	 */
+	public void mapPoints(float[] dst, int dstIdx, float[] src, int srcIdx,
+			int pointCount) {
+		for (int i = 0; i < pointCount * 2; i += 2) {
+			float x = src[srcIdx + i];
+			float y = src[srcIdx + i + 1];
+			dst[dstIdx + i] = x * mScaleX + y * mSkewX + mTranslateX;
+			dst[dstIdx + i + 1] = x * mSkewY + y * mScaleY + mTranslateY;
+		}
+	}
+
+	/**
+	 * Maps rectangle given as min x, min y, max x, max y in place, into
+	 * bounding rectangle of its transformed corners.
+	 */
+	public void mapRect(float[] rect) {
+		float x0 = rect[0], y0 = rect[1], x1 = rect[2], y1 = rect[3];
+		float minX = Float.MAX_VALUE, minY = Float.MAX_VALUE;
+		float maxX = -Float.MAX_VALUE, maxY = -Float.MAX_VALUE;
+		for (int i = 0; i < 4; ++i) {
+			float x = (i & 1) == 0 ? x0 : x1;
+			float y = (i & 2) == 0 ? y0 : y1;
+			float mappedX = x * mScaleX + y * mSkewX + mTranslateX;
+			float mappedY = x * mSkewY + y * mScaleY + mTranslateY;
+			minX = Math.min(minX, mappedX);
+			minY = Math.min(minY, mappedY);
+			maxX = Math.max(maxX, mappedX);
+			maxY = Math.max(maxY, mappedY);
+		}
+		rect[0] = minX;
+		rect[1] = minY;
+		rect[2] = maxX;
+		rect[3] = maxY;
+	}
+
+	/**
+	 * Resets transform to identity.
+	 */
+	public void reset() {
+		mScaleX = mScaleY = 1f;
+		mSkewX = mSkewY = mTranslateX = mTranslateY = 0f;
+	}
+
+	/**
+	 * Scales by given factors after current transform.
+	 */
+	public void scale(float scaleX, float scaleY) {
+		mScaleX *= scaleX;
+		mSkewX *= scaleX;
+		mTranslateX *= scaleX;
+		mSkewY *= scaleY;
+		mScaleY *= scaleY;
+		mTranslateY *= scaleY;
+	}
+
+	/**
+	 * Copies given transform into this one.
+	 */
+	public void set(KittyTransform t) {
+		mScaleX = t.mScaleX;
+		mSkewX = t.mSkewX;
+		mTranslateX = t.mTranslateX;
+		mSkewY = t.mSkewY;
+		mScaleY = t.mScaleY;
+		mTranslateY = t.mTranslateY;
+	}
+
+	/**
+	 * Sets transform to translation by given amount.
+	 */
+	public void setTranslate(float dx, float dy) {
+		reset();
+		mTranslateX = dx;
+		mTranslateY = dy;
+	}
+
+	/**
+	 * Translates by given amount after current transform.
+	 */
+	public void translate(float dx, float dy) {
+		mTranslateX += dx;
+		mTranslateY += dy;
+	}
+
+}
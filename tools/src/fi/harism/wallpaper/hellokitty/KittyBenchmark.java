@@ -0,0 +1,333 @@
+/*
+   Copyright 2012 Harri Smatt
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package fi.harism.wallpaper.hellokitty;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Microbenchmarks for scene loading and frame building. Each benchmark is
+ * warmed up and then run for given time, results are reported as operations
+ * per second and bytes allocated per operation. Frame benchmarks render
+ * through KittyGlRecorder and report GL calls per operation too.
+ *
+ * Usage: KittyBenchmark [-time millis] [-repeat count] [project dir], or
+ * 'ant benchmark' from project directory. Android library is needed on class
+ * path only for compiling, for GLES20 constants.
+ */
+public final class KittyBenchmark {
+
+	// Simulated view size for frame benchmarks.
+	private static final int VIEW_WIDTH = 1080, VIEW_HEIGHT = 1920;
+
+	// Directory containing res and scene directories.
+	private final String mProjectDir;
+	// Times of each enlarged scene content.
+	private final int mRepeat;
+	// Measurement time per benchmark in milliseconds.
+	private final long mTime;
+
+	/**
+	 * Constructor takes project directory, times scene is repeated in
+	 * enlarged scene and measurement time.
+	 */
+	private KittyBenchmark(String projectDir, int repeat, long time) {
+		mProjectDir = projectDir;
+		mRepeat = repeat;
+		mTime = time;
+	}
+
+	/**
+	 * Returns given scene xml with its root content repeated given times.
+	 */
+	private static byte[] enlarge(byte[] data, int repeat) throws Exception {
+		String xml = new String(data, "UTF-8");
+		int start = xml.indexOf('>', xml.indexOf("<xml")) + 1;
+		int end = xml.lastIndexOf("</xml>");
+		String content = xml.substring(start, end);
+
+		StringBuilder ret = new StringBuilder(xml.substring(0, start));
+		for (int i = 0; i < repeat; ++i) {
+			ret.append(content);
+		}
+		ret.append(xml.substring(end));
+		return ret.toString().getBytes("UTF-8");
+	}
+
+	/**
+	 * Returns bytes allocated by current thread so far, or -1 if not
+	 * supported by JVM.
+	 */
+	private static long getAllocatedBytes() {
+		java.lang.management.ThreadMXBean bean = ManagementFactory
+				.getThreadMXBean();
+		if (bean instanceof com.sun.management.ThreadMXBean) {
+			com.sun.management.ThreadMXBean sunBean;
+			sunBean = (com.sun.management.ThreadMXBean) bean;
+			if (sunBean.isThreadAllocatedMemorySupported()) {
+				return sunBean.getThreadAllocatedBytes(Thread.currentThread()
+						.getId());
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Reads given file relative to project directory.
+	 */
+	private byte[] load(String path) throws Exception {
+		InputStream is = new FileInputStream(mProjectDir + "/" + path);
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		byte[] buf = new byte[1024];
+		int len;
+		while ((len = is.read(buf)) != -1) {
+			baos.write(buf, 0, len);
+		}
+		is.close();
+		return baos.toByteArray();
+	}
+
+	/**
+	 * Loads shader program with given vertex and fragment shader names and
+	 * attribute names bound to their index.
+	 */
+	private KittyShader loadShader(KittyGl gl, String vs, String fs,
+			String[] attribNames) throws Exception {
+		KittyShader shader = new KittyShader(gl);
+		shader.setProgram(new String(load("res/raw/" + vs + ".txt")),
+				new String(load("res/raw/" + fs + ".txt")), null,
+				attribNames);
+		return shader;
+	}
+
+	public static void main(String[] args) throws Exception {
+		long time = 2000;
+		int repeat = 100;
+		String projectDir = ".";
+		for (int i = 0; i < args.length; ++i) {
+			if (args[i].equals("-time") && i + 1 < args.length) {
+				time = Long.parseLong(args[++i]);
+			} else if (args[i].equals("-repeat") && i + 1 < args.length) {
+				repeat = Integer.parseInt(args[++i]);
+			} else if (!args[i].startsWith("-")) {
+				projectDir = args[i];
+			} else {
+				System.err.println("Usage: KittyBenchmark [-time millis] "
+						+ "[-repeat count] [project dir]");
+				System.exit(1);
+			}
+		}
+		new KittyBenchmark(projectDir, repeat, time).runAll();
+	}
+
+	/**
+	 * Runs given benchmark and prints results. GL calls are counted from
+	 * given recorder if one is given.
+	 */
+	private void run(Benchmark benchmark, KittyGlRecorder gl)
+			throws Exception {
+		// Warm up.
+		long sink = 0;
+		long end = System.currentTimeMillis() + mTime / 2;
+		while (System.currentTimeMillis() < end) {
+			sink += benchmark.run();
+		}
+
+		int ops = 0;
+		if (gl != null) {
+			gl.reset();
+		}
+		long bytes = getAllocatedBytes();
+		long time = System.nanoTime();
+		end = time + mTime * 1000000;
+		do {
+			sink += benchmark.run();
+			++ops;
+		} while (System.nanoTime() < end);
+		time = System.nanoTime() - time;
+		bytes = bytes < 0 ? -1 : getAllocatedBytes() - bytes;
+
+		System.out.printf("%-24s %14.1f ops/s %12.1f B/op", benchmark.mName,
+				ops * 1e9 / time, bytes < 0 ? Double.NaN : (double) bytes
+						/ ops);
+		if (gl != null) {
+			System.out.printf(" %8.1f calls/op", (double) gl
+					.getCount(KittyGlRecorder.COUNT_CALLS) / ops);
+		}
+		System.out.printf("  (%d)%n", sink & 0xF);
+	}
+
+	/**
+	 * Runs all benchmarks.
+	 */
+	private void runAll() throws Exception {
+		runSceneBenchmarks();
+		runFrameBenchmarks();
+	}
+
+	/**
+	 * Runs frame benchmarks. Frames are prepared by KittyAnimator and
+	 * rendered by KittyFrameRenderer, as on device, into recording backend
+	 * without delegate.
+	 */
+	private void runFrameBenchmarks() throws Exception {
+		final KittyScene scene = KittyScene.read(ByteBuffer
+				.wrap(load("res/raw/kitty_scene.bin")));
+		final float[] aspectRatio = {
+				(float) Math.min(VIEW_WIDTH, VIEW_HEIGHT) / VIEW_WIDTH,
+				(float) Math.min(VIEW_WIDTH, VIEW_HEIGHT) / VIEW_HEIGHT };
+		final float pixelScale = Math.min(VIEW_WIDTH, VIEW_HEIGHT) / 2f;
+
+		final KittyGlRecorder gl = new KittyGlRecorder();
+		KittyGlState state = new KittyGlState(gl);
+		KittyFboPool fboPool = new KittyFboPool(gl,
+				KittyRenderer.FBO_POOL_BUDGET);
+		KittyLayerCache layerCache = new KittyLayerCache(fboPool,
+				KittyRenderer.LAYER_CACHE_BUDGET);
+		layerCache.init(VIEW_WIDTH, VIEW_HEIGHT);
+		final KittyFbo fbo = fboPool.acquire(VIEW_WIDTH, VIEW_HEIGHT,
+				KittyFbo.FORMAT_RGB888);
+
+		final KittyFrameRenderer renderer = new KittyFrameRenderer(gl, state,
+				layerCache, loadShader(gl, "batch_vs", "batch_fs",
+						KittyFrameRenderer.ATTRIBS_BATCH), loadShader(gl,
+						"bezier_vs", "bezier_fs",
+						KittyFrameRenderer.ATTRIBS_BEZIER), loadShader(gl,
+						"copy_vs", "texture_fs",
+						KittyFrameRenderer.ATTRIBS_SCREEN));
+		renderer.init(true);
+		renderer.setView(aspectRatio, pixelScale);
+		renderer.setScene(scene);
+
+		final KittyAnimator animator = new KittyAnimator(scene,
+				KittyAnimation.create(scene));
+		animator.setView(aspectRatio, pixelScale);
+		final KittyFrame frame = new KittyFrame(gl);
+
+		// Animation program, frames are prepared at 16 millisecond intervals
+		// or at next change if that comes later, skipping idle periods.
+		// Damaged area is rendered, beziers outside of it are culled.
+		run(new Benchmark("frame.animate") {
+			private long mTime;
+
+			@Override
+			public long run() {
+				animator.prepare(frame, mTime);
+				mTime = Math.max(mTime + 16, frame.getTimeNext());
+				return renderer.render(frame, fbo);
+			}
+		}, gl);
+
+		// Restoring content after context loss, whole view is redrawn and
+		// nothing is culled.
+		run(new Benchmark("frame.restore") {
+			@Override
+			public long run() {
+				animator.prepareRestore(frame);
+				return renderer.render(frame, fbo);
+			}
+		}, gl);
+	}
+
+	/**
+	 * Runs scene loading benchmarks.
+	 */
+	private void runSceneBenchmarks() throws Exception {
+		final byte[] xml = load("scene/kitty_svg.xml");
+		final byte[] xmlEnlarged = enlarge(xml, mRepeat);
+		final byte[] bin = load("res/raw/kitty_scene.bin");
+
+		run(new Benchmark("svg.read.x1") {
+			@Override
+			public long run() throws Exception {
+				KittySvg svg = new KittySvg();
+				svg.read(new java.io.ByteArrayInputStream(xml));
+				return svg.getScene().getBezierCount();
+			}
+		}, null);
+
+		run(new Benchmark("svg.read.x" + mRepeat) {
+			@Override
+			public long run() throws Exception {
+				KittySvg svg = new KittySvg();
+				svg.read(new java.io.ByteArrayInputStream(xmlEnlarged));
+				return svg.getScene().getBezierCount();
+			}
+		}, null);
+
+		// First control points attribute found in scene.
+		Matcher matcher = Pattern.compile("pts1=\"([^\"]*)\"").matcher(
+				new String(xml, "UTF-8"));
+		final String pts = matcher.find() ? matcher.group(1) : "0,0 1,1";
+		final KittySvg svg = new KittySvg();
+		final KittySvg.Values values = new KittySvg.Values();
+		run(new Benchmark("svg.readValues") {
+			@Override
+			public long run() {
+				svg.readValues(pts, values);
+				return values.mCount;
+			}
+		}, null);
+
+		final float[] bezier = { 0f, 0f, .3f, .8f, .7f, -.8f, 1f, 0f };
+		final float[] normal = new float[2];
+		run(new Benchmark("svg.calculateNormal") {
+			private float mT;
+
+			@Override
+			public long run() {
+				mT = mT >= 1f ? 0f : mT + .01f;
+				svg.calculateNormal(bezier, mT, normal, 0);
+				return (long) (normal[0] * 100);
+			}
+		}, null);
+
+		run(new Benchmark("scene.read") {
+			@Override
+			public long run() throws Exception {
+				return KittyScene.read(ByteBuffer.wrap(bin)).getBezierCount();
+			}
+		}, null);
+	}
+
+	/**
+	 * Single benchmark, run() is called repeatedly and its return values are
+	 * summed up to keep work from being optimized away.
+	 */
+	private static abstract class Benchmark {
+
+		// Benchmark name.
+		private final String mName;
+
+		/**
+		 * Constructor takes benchmark name.
+		 */
+		public Benchmark(String name) {
+			mName = name;
+		}
+
+		/**
+		 * Runs one operation.
+		 */
+		public abstract long run() throws Exception;
+	}
+
+}
@@ -0,0 +1,128 @@
+/*
+   Copyright 2012 Harri Smatt
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package fi.harism.wallpaper.hellokitty;
+
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Build time tool for compiling scene xml into binary scene data read by
+ * KittyScene. See KittyScene for file layout.
+ *
+ * Usage: KittySceneCompiler [-quantize] input.xml output.bin
+ */
+public final class KittySceneCompiler {
+
+	/**
+	 * Writes given scene into binary scene data.
+	 */
+	public static byte[] compile(KittyScene scene, boolean quantize)
+			throws Exception {
+		int layerCount = scene.getLayerCount();
+		int bezierCount = scene.getBezierCount();
+		float[] points = new float[bezierCount * 16];
+		for (int i = 0; i < bezierCount; ++i) {
+			scene.getPoints(i, points, i * 16);
+		}
+
+		int idBytes = 0;
+		for (int i = 0; i < layerCount; ++i) {
+			idBytes += (scene.getLayerId(i).getBytes("UTF-8").length + 3) & ~3;
+		}
+		float maxCoord = 0;
+		for (float coord : points) {
+			maxCoord = Math.max(maxCoord, Math.abs(coord));
+		}
+
+		int flags = quantize ? KittyScene.FLAG_QUANTIZED : 0;
+		float quantizeStep = maxCoord > 0 ? maxCoord / Short.MAX_VALUE : 1f;
+		int size = 6 * 4 + layerCount * 6 * 4 + idBytes + bezierCount
+				* (4 + 8 + (quantize ? 32 : 64));
+
+		ByteBuffer buf = ByteBuffer.allocate(size).order(
+				ByteOrder.LITTLE_ENDIAN);
+		buf.putInt(KittyScene.MAGIC).putInt(KittyScene.VERSION);
+		buf.putInt(flags).putInt(layerCount).putInt(bezierCount);
+		buf.putFloat(quantizeStep);
+
+		for (int i = 0; i < layerCount; ++i) {
+			byte[] id = scene.getLayerId(i).getBytes("UTF-8");
+			int bezierStart = scene.getLayerBezierStart(i);
+			buf.putInt(bezierStart);
+			buf.putInt(scene.getLayerBezierEnd(i) - bezierStart);
+			buf.putFloat(scene.getLayerTranslateX(i));
+			buf.putFloat(scene.getLayerTranslateY(i));
+			buf.putFloat(scene.getLayerScale(i));
+			buf.putInt(id.length).put(id);
+			buf.position((buf.position() + 3) & ~3);
+		}
+		for (int i = 0; i < bezierCount; ++i) {
+			buf.putInt(scene.getColor(i));
+		}
+		for (int i = 0; i < bezierCount; ++i) {
+			buf.putInt((int) scene.getTimeStart(i));
+			buf.putInt((int) scene.getTimeDuration(i));
+		}
+		for (float coord : points) {
+			if (quantize) {
+				buf.putShort((short) Math.round(coord / quantizeStep));
+			} else {
+				buf.putFloat(coord);
+			}
+		}
+		return buf.array();
+	}
+
+	/**
+	 * Compiles xml file given as first argument into binary file given as
+	 * second argument.
+	 */
+	public static void main(String[] args) throws Exception {
+		boolean quantize = args.length == 3 && args[0].equals("-quantize");
+		if (args.length != (quantize ? 3 : 2)) {
+			System.err.println("Usage: KittySceneCompiler [-quantize] "
+					+ "input.xml output.bin");
+			System.exit(1);
+		}
+		String input = args[quantize ? 1 : 0];
+		String output = args[quantize ? 2 : 1];
+
+		KittySvg svg = new KittySvg();
+		InputStream is = new FileInputStream(input);
+		try {
+			svg.read(is);
+		} finally {
+			is.close();
+		}
+
+		byte[] data = compile(svg.getScene(), quantize);
+		// Verify output can be read back.
+		KittyScene.read(ByteBuffer.wrap(data));
+
+		OutputStream os = new FileOutputStream(output);
+		try {
+			os.write(data);
+		} finally {
+			os.close();
+		}
+	}
+
+}
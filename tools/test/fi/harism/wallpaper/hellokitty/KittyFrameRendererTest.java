@@ -0,0 +1,222 @@
+/*
+   Copyright 2012 Harri Smatt
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package fi.harism.wallpaper.hellokitty;
+
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * GL command regression tests for frames prepared by KittyAnimator and
+ * rendered by KittyFrameRenderer into KittyGlRecorder, as in benchmarks.
+ * Limits are counts current code issues, tests fail if a frame starts
+ * issuing more commands.
+ */
+public final class KittyFrameRendererTest extends KittyTestCase {
+
+	// Per frame limits while kitty is being drawn.
+	private static final int ANIMATE_CALLS_MAX = 26;
+	private static final int ANIMATE_DRAWS_MAX = 2;
+	private static final int ANIMATE_UNIFORMS_MAX = 4;
+	// Restore frame counts, restore happens after given number of frames.
+	private static final int RESTORE_CALLS = 8;
+	private static final int RESTORE_FRAME = 200;
+	private static final int RESTORE_UNIFORMS = 1;
+	// Simulated view size.
+	private static final int VIEW_WIDTH = 1080, VIEW_HEIGHT = 1920;
+
+	private KittyAnimator mAnimator;
+	private KittyFbo mFbo;
+	private KittyFrame mFrame;
+	private KittyGlRecorder mGl;
+	private KittyFrameRenderer mRenderer;
+	private KittyScene mScene;
+
+	/**
+	 * Asserts given command was recorded given number of times since last
+	 * reset.
+	 */
+	private void assertCalls(String command, int expected) {
+		List<String> commands = mGl.getCommands();
+		assertEquals(command, expected, Collections.frequency(commands,
+				command));
+	}
+
+	/**
+	 * Returns number of draw calls needed for drawing all beziers of scene as
+	 * batch, one per KittyBatch.LAYER_SLOTS layers.
+	 */
+	private int getBatchDraws() {
+		int draws = 0;
+		int layerCount = mScene.getLayerCount();
+		for (int i = 0; i < layerCount; i += KittyBatch.LAYER_SLOTS) {
+			int end = Math.min(i + KittyBatch.LAYER_SLOTS, layerCount);
+			if (mScene.getLayerBezierStart(i) < mScene
+					.getLayerBezierEnd(end - 1)) {
+				++draws;
+			}
+		}
+		return draws;
+	}
+
+	/**
+	 * Loads shader program with given vertex and fragment shader names,
+	 * binding given attributes.
+	 */
+	private KittyShader loadShader(String vs, String fs,
+			String[] attribNames) throws Exception {
+		KittyShader shader = new KittyShader(mGl);
+		shader.setProgram(new String(load("res/raw/" + vs + ".txt")),
+				new String(load("res/raw/" + fs + ".txt")), null,
+				attribNames);
+		return shader;
+	}
+
+	/**
+	 * Prepares and renders frames until kitty has been drawn or given number
+	 * of frames has been rendered, returns number of frames rendered. Kitty
+	 * is drawn first in every animation program. Counters are reset before
+	 * each frame and checked against per frame limits.
+	 */
+	private int renderKitty(int frameCount) {
+		int frames = 0;
+		long time = 0;
+		while (frames < frameCount) {
+			mAnimator.prepare(mFrame, time);
+			if (mFrame.getState() != KittyStats.STATE_RENDER) {
+				break;
+			}
+			mGl.reset();
+			mRenderer.render(mFrame, mFbo);
+			int draws = mRenderer.getDrawCount();
+			assertEquals("recorded draws", mGl
+					.getCount(KittyGlRecorder.COUNT_DRAWS), draws);
+			assertTrue("draws " + draws, draws <= ANIMATE_DRAWS_MAX);
+			int calls = mGl.getCount(KittyGlRecorder.COUNT_CALLS);
+			assertTrue("calls " + calls, calls <= ANIMATE_CALLS_MAX);
+			int uniforms = mGl.getCount(KittyGlRecorder.COUNT_UNIFORMS);
+			assertTrue("uniforms " + uniforms,
+					uniforms <= ANIMATE_UNIFORMS_MAX);
+			time = Math.max(time + 16, mFrame.getTimeNext());
+			++frames;
+		}
+		return frames;
+	}
+
+	@Override
+	protected void setUp() throws Exception {
+		mScene = KittyScene.read(ByteBuffer
+				.wrap(load("res/raw/kitty_scene.bin")));
+		float[] aspectRatio = {
+				(float) Math.min(VIEW_WIDTH, VIEW_HEIGHT) / VIEW_WIDTH,
+				(float) Math.min(VIEW_WIDTH, VIEW_HEIGHT) / VIEW_HEIGHT };
+		float pixelScale = Math.min(VIEW_WIDTH, VIEW_HEIGHT) / 2f;
+
+		mGl = new KittyGlRecorder();
+		KittyGlState glState = new KittyGlState(mGl);
+		KittyFboPool fboPool = new KittyFboPool(mGl,
+				KittyRenderer.FBO_POOL_BUDGET);
+		KittyLayerCache layerCache = new KittyLayerCache(fboPool,
+				KittyRenderer.LAYER_CACHE_BUDGET);
+		layerCache.init(VIEW_WIDTH, VIEW_HEIGHT);
+		mFbo = fboPool.acquire(VIEW_WIDTH, VIEW_HEIGHT,
+				KittyFbo.FORMAT_RGB888);
+
+		mRenderer = new KittyFrameRenderer(mGl, glState, layerCache,
+				loadShader("batch_vs", "batch_fs",
+						KittyFrameRenderer.ATTRIBS_BATCH), loadShader(
+						"bezier_vs", "bezier_fs",
+						KittyFrameRenderer.ATTRIBS_BEZIER), loadShader(
+						"copy_vs", "texture_fs",
+						KittyFrameRenderer.ATTRIBS_SCREEN));
+		mRenderer.init(true);
+		mRenderer.setView(aspectRatio, pixelScale);
+		mRenderer.setScene(mScene);
+
+		mAnimator = new KittyAnimator(mScene, KittyAnimation.create(mScene));
+		mAnimator.setView(aspectRatio, pixelScale);
+		mFrame = new KittyFrame(mGl);
+		mGl.setRecordCommands(true);
+	}
+
+	/**
+	 * Kitty drawing frames stay within per frame limits.
+	 */
+	public void testAnimate() {
+		assertTrue("frames", renderKitty(Integer.MAX_VALUE) > 0);
+	}
+
+	/**
+	 * Move frame draws cached layers below and above moving layer with one
+	 * draw each, without touching blend function set in init.
+	 */
+	public void testMove() {
+		int layer = mScene.getLayerCount() / 2;
+		for (int i = 0; i < 2; ++i) {
+			mFrame.reset(0);
+			mFrame.getDamage().setFull();
+			mFrame.addCached(0, layer, true);
+			mFrame.addMove(layer, .1f, .1f);
+			mFrame.addCached(layer + 1, mScene.getLayerCount(), false);
+			mGl.reset();
+			mRenderer.render(mFrame, mFbo);
+		}
+		assertEquals("draws", 3, mRenderer.getDrawCount());
+		assertCalls("glBlendFunc", 0);
+		assertCalls("glUseProgram", 2);
+	}
+
+	/**
+	 * Restoring partly drawn kitty draws every bezier as batch, clamped to
+	 * time window in vertex shader, with one draw call per layer slot range.
+	 */
+	public void testRestore() {
+		assertEquals("frames", RESTORE_FRAME, renderKitty(RESTORE_FRAME));
+		mAnimator.prepareRestore(mFrame);
+		mGl.reset();
+		int beziers = mRenderer.render(mFrame, mFbo);
+		assertEquals("beziers", mScene.getBezierCount(), beziers);
+		assertEquals("draws", getBatchDraws(), mRenderer.getDrawCount());
+		assertEquals("calls", RESTORE_CALLS, mGl
+				.getCount(KittyGlRecorder.COUNT_CALLS));
+		assertEquals("uniforms", RESTORE_UNIFORMS, mGl
+				.getCount(KittyGlRecorder.COUNT_UNIFORMS));
+	}
+
+	/**
+	 * Rendering same frame again issues no program, buffer, attribute or
+	 * uniform calls, only changed layer transform uniforms are uploaded.
+	 */
+	public void testRestoreRedundant() {
+		renderKitty(RESTORE_FRAME);
+		mAnimator.prepareRestore(mFrame);
+		mRenderer.render(mFrame, mFbo);
+		mGl.reset();
+		mRenderer.render(mFrame, mFbo);
+		assertEquals("draws", getBatchDraws(), mRenderer.getDrawCount());
+		assertCalls("glUseProgram", 0);
+		assertCalls("glBindBuffer", 0);
+		assertCalls("glEnableVertexAttribArray", 0);
+		assertCalls("glDisableVertexAttribArray", 0);
+		assertCalls("glVertexAttribPointer", 0);
+		assertCalls("glBlendFunc", 0);
+		assertCalls("glEnable", 0);
+		assertCalls("glUniform2f", 0);
+		assertCalls("glUniform2fv", 0);
+	}
+
+}
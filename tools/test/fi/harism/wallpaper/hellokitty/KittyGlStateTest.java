@@ -0,0 +1,202 @@
+/*
+   Copyright 2012 Harri Smatt
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package fi.harism.wallpaper.hellokitty;
+
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.List;
+
+import android.opengl.GLES20;
+
+/**
+ * Tests for redundant GL calls filtered out by KittyGlState and KittyShader,
+ * counted with KittyGlRecorder.
+ */
+public final class KittyGlStateTest extends KittyTestCase {
+
+	// Shader sources with two attributes and two uniforms.
+	private static final String FS = "void main() {}";
+	private static final String VS = "attribute vec2 aPos;\n"
+			+ "attribute vec3 aColor;\n" + "uniform vec2 uOffset;\n"
+			+ "uniform vec3 uColors[2];\n" + "void main() {}";
+
+	private KittyGlRecorder mGl;
+	private KittyGlState mGlState;
+	private KittyShader mShader, mShaderOther;
+
+	/**
+	 * Asserts given command was recorded given number of times since last
+	 * reset.
+	 */
+	private void assertCalls(String command, int expected) {
+		List<String> commands = mGl.getCommands();
+		assertEquals(command, expected, Collections.frequency(commands,
+				command));
+	}
+
+	@Override
+	protected void setUp() throws Exception {
+		mGl = new KittyGlRecorder();
+		mGlState = new KittyGlState(mGl);
+		mShader = new KittyShader(mGl);
+		mShader.setProgram(VS, FS, null, new String[] { "aPos", "aColor" });
+		mShaderOther = new KittyShader(mGl);
+		mShaderOther.setProgram(VS, FS, null, new String[] { "aColor" });
+		mGl.setRecordCommands(true);
+		mGl.reset();
+	}
+
+	/**
+	 * Attributes are bound to locations given before linking, attributes
+	 * not given are left to linker.
+	 */
+	public void testAttribLocations() {
+		assertEquals("aPos", 0, mShader.getHandle("aPos"));
+		assertEquals("aColor", 1, mShader.getHandle("aColor"));
+		assertEquals("mask", 3, mShader.getAttribMask());
+		assertEquals("aColor", 0, mShaderOther.getHandle("aColor"));
+		assertTrue("aPos", mShaderOther.getHandle("aPos") >= 0);
+	}
+
+	/**
+	 * Client side attribute pointers are set once per buffer, attributes
+	 * outside of tracked range are set every time without failing.
+	 */
+	public void testAttribPointers() {
+		ByteBuffer buffer = ByteBuffer.allocateDirect(16);
+		mGlState.setAttribPointer(0, 2, GLES20.GL_BYTE, buffer);
+		mGlState.setAttribPointer(0, 2, GLES20.GL_BYTE, buffer);
+		assertCalls("glVertexAttribPointer", 1);
+		assertCalls("glBindBuffer", 1);
+		mGlState.setAttribPointer(-1, 2, GLES20.GL_BYTE, buffer);
+		assertCalls("glVertexAttribPointer", 1);
+		mGlState.setAttribPointer(KittyGlState.ATTRIB_COUNT, 2,
+				GLES20.GL_BYTE, buffer);
+		mGlState.setAttribPointer(KittyGlState.ATTRIB_COUNT, 2,
+				GLES20.GL_BYTE, buffer);
+		assertCalls("glVertexAttribPointer", 3);
+	}
+
+	/**
+	 * Array buffer attribute pointers are set once per buffer, offset and
+	 * stride, client side pointer in between forces setting them again.
+	 */
+	public void testAttribPointersArrayBuffer() {
+		ByteBuffer buffer = ByteBuffer.allocateDirect(16);
+		mGlState.bindArrayBuffer(1);
+		mGlState.setAttribPointer(0, 2, GLES20.GL_BYTE, 4, 0);
+		mGlState.setAttribPointer(0, 2, GLES20.GL_BYTE, 4, 0);
+		assertCalls("glVertexAttribPointer", 1);
+		mGlState.setAttribPointer(0, 2, GLES20.GL_BYTE, 4, 2);
+		mGlState.setAttribPointer(0, 2, GLES20.GL_BYTE, 8, 2);
+		assertCalls("glVertexAttribPointer", 3);
+		mGlState.bindArrayBuffer(2);
+		mGlState.setAttribPointer(0, 2, GLES20.GL_BYTE, 8, 2);
+		assertCalls("glVertexAttribPointer", 4);
+		mGlState.setAttribPointer(0, 2, GLES20.GL_BYTE, buffer);
+		mGlState.bindArrayBuffer(2);
+		mGlState.setAttribPointer(0, 2, GLES20.GL_BYTE, 8, 2);
+		assertCalls("glVertexAttribPointer", 6);
+		mGlState.reset();
+		mGlState.bindArrayBuffer(2);
+		mGlState.setAttribPointer(0, 2, GLES20.GL_BYTE, 8, 2);
+		assertCalls("glVertexAttribPointer", 7);
+	}
+
+	/**
+	 * Buffers and textures are bound only when they change.
+	 */
+	public void testBindings() {
+		mGlState.bindArrayBuffer(1);
+		mGlState.bindArrayBuffer(1);
+		mGlState.bindTexture(2);
+		mGlState.bindTexture(2);
+		assertCalls("glBindBuffer", 1);
+		assertCalls("glBindTexture", 1);
+		assertCalls("glActiveTexture", 1);
+		mGlState.bindArrayBuffer(0);
+		mGlState.bindTexture(3);
+		assertCalls("glBindBuffer", 2);
+		assertCalls("glBindTexture", 2);
+	}
+
+	/**
+	 * Blending is enabled and disabled only when it changes.
+	 */
+	public void testBlend() {
+		mGlState.setBlend(true);
+		mGlState.setBlend(true);
+		assertCalls("glEnable", 1);
+		mGlState.setBlend(false);
+		mGlState.setBlend(false);
+		assertCalls("glDisable", 1);
+		mGlState.reset();
+		mGlState.setBlend(false);
+		assertCalls("glDisable", 2);
+		assertCalls("glBlendFunc", 0);
+	}
+
+	/**
+	 * Uniforms are uploaded only when their values change.
+	 */
+	public void testUniforms() {
+		int uOffset = mShader.getHandle("uOffset");
+		int uColors = mShader.getHandle("uColors");
+		float[] colors = { 1f, 2f, 3f, 4f, 5f, 6f };
+		mGlState.useProgram(mShader);
+		mGl.reset();
+
+		mShader.setUniform2f(uOffset, 1f, 2f);
+		mShader.setUniform2f(uOffset, 1f, 2f);
+		mShader.setUniform3fv(uColors, 2, colors, 0);
+		mShader.setUniform3fv(uColors, 2, colors, 0);
+		assertEquals("uniforms", 2, mGl
+				.getCount(KittyGlRecorder.COUNT_UNIFORMS));
+
+		colors[5] = 7f;
+		mShader.setUniform3fv(uColors, 2, colors, 0);
+		mShader.setUniform2f(uOffset, 1f, 3f);
+		assertEquals("uniforms", 4, mGl
+				.getCount(KittyGlRecorder.COUNT_UNIFORMS));
+
+		// Unknown handle is ignored.
+		mShader.setUniform2f(-1, 0f, 0f);
+		assertEquals("uniforms", 4, mGl
+				.getCount(KittyGlRecorder.COUNT_UNIFORMS));
+	}
+
+	/**
+	 * Programs are switched only when they change and only attributes which
+	 * change are enabled or disabled.
+	 */
+	public void testUseProgram() {
+		mGlState.useProgram(mShader);
+		assertCalls("glUseProgram", 1);
+		assertCalls("glEnableVertexAttribArray", 2);
+		assertCalls("glDisableVertexAttribArray", 6);
+
+		mGl.reset();
+		mGlState.useProgram(mShader);
+		assertEquals("calls", 0, mGl.getCount(KittyGlRecorder.COUNT_CALLS));
+
+		mGlState.useProgram(mShaderOther);
+		assertCalls("glUseProgram", 1);
+		assertCalls("glEnableVertexAttribArray", 0);
+		assertCalls("glDisableVertexAttribArray", 1);
+	}
+
+}
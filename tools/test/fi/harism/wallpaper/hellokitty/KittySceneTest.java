@@ -0,0 +1,190 @@
+/*
+   Copyright 2012 Harri Smatt
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package fi.harism.wallpaper.hellokitty;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.Random;
+
+/**
+ * Tests for KittyScene layer transforms and time index, using bundled scene
+ * and generated scenes.
+ */
+public final class KittySceneTest extends KittyTestCase {
+
+	// Bundled scene.
+	private KittyScene mScene;
+
+	/**
+	 * Asserts time index of given scene finds same beziers for time windows
+	 * as scanning all beziers. Windows cover scene time range with given
+	 * step and window length.
+	 */
+	private static void assertTimeIndex(KittyScene scene, long step,
+			long length) {
+		int bezierCount = scene.getBezierCount();
+		long timeEnd = scene.getTimeEnd();
+		for (int i = 0; i < bezierCount; ++i) {
+			timeEnd = Math.max(timeEnd, scene.getTimeEnd(i));
+		}
+		assertEquals("scene end time", timeEnd, scene.getTimeEnd());
+
+		// Index is sorted by start time and holds every bezier once.
+		boolean[] indexed = new boolean[bezierCount];
+		for (int i = 0; i < bezierCount; ++i) {
+			int bezier = scene.getTimeIndexBezier(i);
+			assertTrue("bezier indexed twice", !indexed[bezier]);
+			indexed[bezier] = true;
+			if (i > 0) {
+				assertTrue("index sorted", scene.getTimeStart(bezier) >= scene
+						.getTimeStart(scene.getTimeIndexBezier(i - 1)));
+			}
+		}
+
+		for (long time = -step; time <= timeEnd + step; time += step) {
+			long timeLast = time, timeCurrent = time + length;
+			int indexStart = scene.getTimeIndexStart(timeLast);
+			int indexEnd = scene.getTimeIndexEnd(timeCurrent);
+
+			// Beziers drawn during window, as found by KittyAnimator.
+			boolean[] found = new boolean[bezierCount];
+			for (int i = indexStart; i < indexEnd; ++i) {
+				int bezier = scene.getTimeIndexBezier(i);
+				if (scene.getTimeEnd(bezier) >= timeLast) {
+					found[bezier] = true;
+				}
+			}
+
+			// Brute force over all beziers.
+			int started = 0;
+			for (int i = 0; i < bezierCount; ++i) {
+				boolean active = scene.getTimeStart(i) <= timeCurrent
+						&& scene.getTimeEnd(i) >= timeLast;
+				assertTrue("bezier " + i + " in window [" + timeLast + ", "
+						+ timeCurrent + "]", found[i] == active);
+				if (scene.getTimeStart(i) <= timeCurrent) {
+					++started;
+				}
+			}
+			assertEquals("index end at " + timeCurrent, started, indexEnd);
+			for (int i = 0; i < indexStart; ++i) {
+				assertTrue("bezier before index start ended", scene
+						.getTimeEnd(scene.getTimeIndexBezier(i)) < timeLast);
+			}
+		}
+	}
+
+	/**
+	 * Returns generated scene with given number of beziers on one layer, with
+	 * random start times and durations, some of them zero.
+	 */
+	private static KittyScene createScene(int bezierCount, long seed) {
+		Random random = new Random(seed);
+		IntBuffer times = IntBuffer.allocate(bezierCount * 2);
+		for (int i = 0; i < bezierCount; ++i) {
+			times.put(i * 2, random.nextInt(20) * 50);
+			times.put(i * 2 + 1, random.nextInt(4) == 0 ? 0 : random
+					.nextInt(400));
+		}
+		return new KittyScene(new String[] { "layer" }, new int[] { 0,
+				bezierCount }, new float[] { 0f, 0f, 1f },
+				IntBuffer.allocate(bezierCount), times,
+				FloatBuffer.allocate(bezierCount * 16));
+	}
+
+	@Override
+	protected void setUp() throws Exception {
+		mScene = KittyScene.read(ByteBuffer
+				.wrap(load("res/raw/kitty_scene.bin")));
+	}
+
+	/**
+	 * Layer transform maps layer space point p into scene space (p + t) * s,
+	 * which equals p * s + t * s used in batch_vs and culling.
+	 */
+	public void testLayerTransform() {
+		KittyTransform transform = new KittyTransform();
+		float[] bounds = new float[4], pt = new float[2];
+		assertTrue("scene has layers", mScene.getLayerCount() > 0);
+		for (int i = 0; i < mScene.getLayerCount(); ++i) {
+			mScene.getLayerTransform(i, transform);
+			float tx = mScene.getLayerTranslateX(i);
+			float ty = mScene.getLayerTranslateY(i);
+			float s = mScene.getLayerScale(i);
+			assertEquals("scale x", s, transform.getScaleX(), 1e-6f);
+			assertEquals("scale y", s, transform.getScaleY(), 1e-6f);
+
+			mScene.getLayerBounds(i, bounds);
+			for (int j = 0; j < 4; j += 2) {
+				float x = bounds[j], y = bounds[j + 1];
+				pt[0] = x;
+				pt[1] = y;
+				transform.mapPoints(pt, 0, pt, 0, 1);
+				float delta = 1e-4f * (1f + Math.abs(pt[0]) + Math.abs(pt[1]));
+				assertEquals("layer " + i + " x", (x + tx) * s, pt[0], delta);
+				assertEquals("layer " + i + " y", (y + ty) * s, pt[1], delta);
+				assertEquals("layer " + i + " shader x",
+						x * transform.getScaleX() + transform.getTranslateX(),
+						pt[0], delta);
+				assertEquals("layer " + i + " shader y",
+						y * transform.getScaleY() + transform.getTranslateY(),
+						pt[1], delta);
+			}
+		}
+	}
+
+	/**
+	 * Layer transform replaces previous value of given transform instead of
+	 * being concatenated to it.
+	 */
+	public void testLayerTransformResets() {
+		KittyTransform transform = new KittyTransform();
+		transform.setTranslate(100f, 100f);
+		transform.scale(7f, 7f);
+		mScene.getLayerTransform(0, transform);
+		float[] pt = { 0f, 0f };
+		transform.mapPoints(pt, 0, pt, 0, 1);
+		assertEquals("x", mScene.getLayerTranslateX(0)
+				* mScene.getLayerScale(0), pt[0], 1e-4f);
+		assertEquals("y", mScene.getLayerTranslateY(0)
+				* mScene.getLayerScale(0), pt[1], 1e-4f);
+	}
+
+	/**
+	 * Time index of bundled scene for frame sized and longer windows.
+	 */
+	public void testTimeIndex() {
+		assertTimeIndex(mScene, 16, 16);
+		assertTimeIndex(mScene, 250, 1000);
+	}
+
+	/**
+	 * Time index of generated scenes with overlapping beziers, equal start
+	 * times and zero durations, for empty, single and longer windows.
+	 */
+	public void testTimeIndexGenerated() {
+		for (int seed = 0; seed < 4; ++seed) {
+			KittyScene scene = createScene(200, seed);
+			assertTimeIndex(scene, 25, 0);
+			assertTimeIndex(scene, 10, 37);
+			assertTimeIndex(scene, 100, 400);
+		}
+		assertTimeIndex(createScene(0, 0), 10, 10);
+	}
+
+}
@@ -0,0 +1,97 @@
+/*
+   Copyright 2012 Harri Smatt
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package fi.harism.wallpaper.hellokitty;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FileInputStream;
+import java.io.InputStream;
+
+/**
+ * Base class for host tests. Public methods whose name starts with "test"
+ * are run by KittyTests on a new instance each, after setUp(). Failed
+ * assertions throw AssertionError.
+ */
+public abstract class KittyTestCase {
+
+	// Directory containing res and scene directories.
+	private String mProjectDir = ".";
+
+	/**
+	 * Fails with given message unless given values are equal.
+	 */
+	protected static void assertEquals(String message, long expected,
+			long actual) {
+		if (expected != actual) {
+			fail(message + ": expected " + expected + " but was " + actual);
+		}
+	}
+
+	/**
+	 * Fails with given message unless given values are within delta.
+	 */
+	protected static void assertEquals(String message, float expected,
+			float actual, float delta) {
+		if (!(Math.abs(expected - actual) <= delta)) {
+			fail(message + ": expected " + expected + " but was " + actual);
+		}
+	}
+
+	/**
+	 * Fails with given message unless condition holds.
+	 */
+	protected static void assertTrue(String message, boolean condition) {
+		if (!condition) {
+			fail(message);
+		}
+	}
+
+	/**
+	 * Fails with given message.
+	 */
+	protected static void fail(String message) {
+		throw new AssertionError(message);
+	}
+
+	/**
+	 * Reads given file relative to project directory.
+	 */
+	protected byte[] load(String path) throws Exception {
+		InputStream is = new FileInputStream(mProjectDir + "/" + path);
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		byte[] buf = new byte[1024];
+		int len;
+		while ((len = is.read(buf)) != -1) {
+			baos.write(buf, 0, len);
+		}
+		is.close();
+		return baos.toByteArray();
+	}
+
+	/**
+	 * Sets directory files are loaded relative to.
+	 */
+	void setProjectDir(String projectDir) {
+		mProjectDir = projectDir;
+	}
+
+	/**
+	 * Called before each test method, does nothing by default.
+	 */
+	protected void setUp() throws Exception {
+	}
+
+}
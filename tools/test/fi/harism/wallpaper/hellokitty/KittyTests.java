@@ -0,0 +1,83 @@
+/*
+   Copyright 2012 Harri Smatt
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package fi.harism.wallpaper.hellokitty;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Runs host tests and exits with non-zero status if any of them fails.
+ *
+ * Usage: KittyTests [project dir], or 'ant test' from project directory.
+ * Android library is needed on class path only for compiling, for GLES20
+ * constants.
+ */
+public final class KittyTests {
+
+	// Test classes run.
+	private static final Class<?>[] TESTS = { KittyFrameRendererTest.class,
+			KittyGlStateTest.class, KittySceneTest.class,
+			KittyTransformTest.class };
+
+	/**
+	 * Main method takes optional project directory, current directory by
+	 * default.
+	 */
+	public static void main(String[] args) throws Exception {
+		String projectDir = args.length > 0 ? args[0] : ".";
+		int count = 0, failures = 0;
+		for (Class<?> test : TESTS) {
+			Method[] methods = test.getMethods();
+			Arrays.sort(methods, new Comparator<Method>() {
+				@Override
+				public int compare(Method lhs, Method rhs) {
+					return lhs.getName().compareTo(rhs.getName());
+				}
+			});
+			for (Method method : methods) {
+				if (!method.getName().startsWith("test")
+						|| method.getParameterTypes().length != 0) {
+					continue;
+				}
+				String name = test.getSimpleName() + "." + method.getName();
+				++count;
+				try {
+					KittyTestCase instance = (KittyTestCase) test
+							.newInstance();
+					instance.setProjectDir(projectDir);
+					instance.setUp();
+					method.invoke(instance);
+					System.out.println("ok    " + name);
+				} catch (InvocationTargetException ex) {
+					++failures;
+					System.out.println("FAIL  " + name + ": "
+							+ ex.getCause());
+				} catch (Exception ex) {
+					++failures;
+					System.out.println("FAIL  " + name + ": " + ex);
+				}
+			}
+		}
+		System.out.println(count + " tests, " + failures + " failures");
+		if (failures > 0) {
+			System.exit(1);
+		}
+	}
+
+}
@@ -0,0 +1,152 @@
+/*
+   Copyright 2012 Harri Smatt
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package fi.harism.wallpaper.hellokitty;
+
+/**
+ * Tests for KittyTransform. Operations apply after current transform, values
+ * are computed by hand.
+ */
+public final class KittyTransformTest extends KittyTestCase {
+
+	// Tolerance for mapped coordinates.
+	private static final float DELTA = 1e-5f;
+
+	/**
+	 * Asserts given transform maps (x, y) into (expectedX, expectedY).
+	 */
+	private static void assertMaps(KittyTransform transform, float x,
+			float y, float expectedX, float expectedY) {
+		float[] pt = { x, y };
+		transform.mapPoints(pt, 0, pt, 0, 1);
+		assertEquals("x of (" + x + ", " + y + ")", expectedX, pt[0], DELTA);
+		assertEquals("y of (" + x + ", " + y + ")", expectedY, pt[1], DELTA);
+	}
+
+	/**
+	 * Concatenated transforms are applied in order, as hand computed.
+	 */
+	public void testConcat() {
+		// Translate by (1, 2) then scale by (2, 3): (x + 1) * 2, (y + 2) * 3.
+		KittyTransform transform = new KittyTransform();
+		transform.setTranslate(1f, 2f);
+		KittyTransform scale = new KittyTransform();
+		scale.scale(2f, 3f);
+		transform.concat(scale);
+		assertMaps(transform, 0f, 0f, 2f, 6f);
+		assertMaps(transform, 1f, -1f, 4f, 3f);
+
+		// Then translate by (-1, .5): (x + 1) * 2 - 1, (y + 2) * 3 + .5.
+		KittyTransform translate = new KittyTransform();
+		translate.setTranslate(-1f, .5f);
+		transform.concat(translate);
+		assertMaps(transform, 0f, 0f, 1f, 6.5f);
+		assertMaps(transform, 2f, 1f, 5f, 9.5f);
+		assertEquals("scale x", 2f, transform.getScaleX(), DELTA);
+		assertEquals("scale y", 3f, transform.getScaleY(), DELTA);
+		assertEquals("translate x", 1f, transform.getTranslateX(), DELTA);
+		assertEquals("translate y", 6.5f, transform.getTranslateY(), DELTA);
+	}
+
+	/**
+	 * Concatenating single operation equals applying the operation.
+	 */
+	public void testConcatMatchesOperations() {
+		KittyTransform ops = new KittyTransform();
+		ops.setTranslate(3f, -2f);
+		ops.scale(.5f, 4f);
+		ops.translate(1f, 1f);
+
+		KittyTransform concat = new KittyTransform();
+		concat.setTranslate(3f, -2f);
+		KittyTransform t = new KittyTransform();
+		t.scale(.5f, 4f);
+		concat.concat(t);
+		t.setTranslate(1f, 1f);
+		concat.concat(t);
+
+		float[] pts = { 0f, 0f, 1f, 2f, -3f, 5f };
+		float[] expected = new float[6], actual = new float[6];
+		ops.mapPoints(expected, 0, pts, 0, 3);
+		concat.mapPoints(actual, 0, pts, 0, 3);
+		for (int i = 0; i < 6; ++i) {
+			assertEquals("coordinate " + i, expected[i], actual[i], DELTA);
+		}
+	}
+
+	/**
+	 * Only given range of points is mapped, also in place.
+	 */
+	public void testMapPointsRange() {
+		// Scale by 2 then translate by (1, -1), only middle point mapped.
+		KittyTransform transform = new KittyTransform();
+		transform.scale(2f, 2f);
+		transform.translate(1f, -1f);
+		float[] src = { 9f, 9f, 1f, 2f, 9f, 9f };
+		float[] dst = new float[5];
+		transform.mapPoints(dst, 1, src, 2, 1);
+		assertEquals("untouched", 0f, dst[0], 0f);
+		assertEquals("x", 3f, dst[1], DELTA);
+		assertEquals("y", 3f, dst[2], DELTA);
+		assertEquals("untouched", 0f, dst[3], 0f);
+
+		// In place.
+		transform.mapPoints(src, 0, src, 0, 3);
+		assertEquals("in place x", 19f, src[0], DELTA);
+		assertEquals("in place y", 17f, src[1], DELTA);
+		assertEquals("in place x", 3f, src[2], DELTA);
+		assertEquals("in place y", 3f, src[3], DELTA);
+	}
+
+	/**
+	 * Negative scale flips rectangle, mapped rectangle is sorted bounds.
+	 */
+	public void testMapRect() {
+		// Negative scale flips rectangle, result is sorted bounding box.
+		KittyTransform transform = new KittyTransform();
+		transform.setTranslate(1f, 1f);
+		transform.scale(-2f, .5f);
+		float[] rect = { 0f, -2f, 3f, 4f };
+		transform.mapRect(rect);
+		assertEquals("min x", -8f, rect[0], DELTA);
+		assertEquals("min y", -.5f, rect[1], DELTA);
+		assertEquals("max x", -2f, rect[2], DELTA);
+		assertEquals("max y", 2.5f, rect[3], DELTA);
+	}
+
+	/**
+	 * Operations apply after current transform and set() copies.
+	 */
+	public void testOrder() {
+		KittyTransform transform = new KittyTransform();
+		transform.translate(1f, 0f);
+		transform.scale(3f, 3f);
+		assertMaps(transform, 1f, 1f, 6f, 3f);
+
+		transform.reset();
+		transform.scale(3f, 3f);
+		transform.translate(1f, 0f);
+		assertMaps(transform, 1f, 1f, 4f, 3f);
+
+		// set() copies.
+		KittyTransform copy = new KittyTransform();
+		copy.set(transform);
+		transform.reset();
+		assertMaps(copy, 1f, 1f, 4f, 3f);
+		assertMaps(transform, 1f, 1f, 1f, 1f);
+	}
+
+}